@@ -14,6 +14,7 @@ import com.kbeanie.multipicker.api.entity.ChosenFile;
 import com.kbeanie.multipicker.api.exceptions.PickerException;
 import com.kbeanie.multipicker.core.PickerManager;
 import com.kbeanie.multipicker.core.threads.AudioProcessorThread;
+import com.kbeanie.multipicker.core.threads.ProcessingEngine;
 import com.kbeanie.multipicker.utils.LogUtils;
 
 import java.util.ArrayList;
@@ -116,11 +117,11 @@ public class AudioPicker extends PickerManager {
      * @param data
      */
     @Override
-    public void submit(Intent data) {
-        handleAudioData(data);
+    public ProcessingHandle submit(Intent data) {
+        return handleAudioData(data);
     }
 
-    private void handleAudioData(Intent intent) {
+    private ProcessingHandle handleAudioData(Intent intent) {
         List<String> uris = new ArrayList<>();
         if (intent != null) {
             if (intent.getDataString() != null) {
@@ -144,15 +145,21 @@ public class AudioPicker extends PickerManager {
                     uris.add(paths.get(i).toString());
                 }
             }
-            processFiles(uris);
+            return processFiles(uris);
         }
+        return null;
     }
 
-    private void processFiles(List<String> uris) {
+    private ProcessingHandle processFiles(List<String> uris) {
         AudioProcessorThread thread = new AudioProcessorThread(getContext(), getFileObjects(uris), cacheLocation);
         thread.setRequestId(requestId);
+        thread.setParallelism(parallelism);
+        thread.setChecksumAlgorithm(checksumAlgorithm);
+        thread.setReuseImports(reuseImports);
+        thread.setReuseRenditions(reuseRenditions);
+        thread.setProcessingCallback(processingCallback);
         thread.setAudioPickerCallback(callback);
-        thread.start();
+        return ProcessingEngine.getInstance().submit(thread);
     }
 
     private void onError(final String errorMessage) {
@@ -0,0 +1,20 @@
+package com.kbeanie.multipicker.api;
+
+/**
+ * Checksums which can be computed while the chosen files are copied.
+ * See {@link com.kbeanie.multipicker.api.entity.ChosenFile#getChecksum()}
+ */
+public interface ChecksumAlgorithm {
+    /**
+     * No checksum is computed. This lets files be copied without reading them into memory.
+     */
+    int NONE = 0;
+    /**
+     * CRC32, as 8 hexadecimal digits. Fast, good enough to detect corrupted uploads.
+     */
+    int CRC32 = 1;
+    /**
+     * SHA-256, as 64 hexadecimal digits.
+     */
+    int SHA_256 = 2;
+}
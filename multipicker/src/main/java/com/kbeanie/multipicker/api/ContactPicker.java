@@ -101,7 +101,7 @@ public class ContactPicker extends PickerManager {
      * @param data
      */
     @Override
-    public void submit(Intent data) {
+    public ProcessingHandle submit(Intent data) {
         if (data != null) {
             if (data.getData() != null) {
                 if (data.getData() instanceof Uri) {
@@ -111,6 +111,8 @@ public class ContactPicker extends PickerManager {
                 }
             }
         }
+        // Contacts are queried right away, there is nothing to cancel
+        return null;
     }
 
     private int getRawContactId(int contactId) {
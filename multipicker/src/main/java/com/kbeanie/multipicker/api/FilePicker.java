@@ -13,6 +13,7 @@ import com.kbeanie.multipicker.api.entity.ChosenFile;
 import com.kbeanie.multipicker.api.exceptions.PickerException;
 import com.kbeanie.multipicker.core.PickerManager;
 import com.kbeanie.multipicker.core.threads.FileProcessorThread;
+import com.kbeanie.multipicker.core.threads.ProcessingEngine;
 import com.kbeanie.multipicker.utils.LogUtils;
 
 import java.util.ArrayList;
@@ -117,11 +118,11 @@ public class FilePicker extends PickerManager {
      * @param data
      */
     @Override
-    public void submit(Intent data) {
-        handleFileData(data);
+    public ProcessingHandle submit(Intent data) {
+        return handleFileData(data);
     }
 
-    private void handleFileData(Intent intent) {
+    private ProcessingHandle handleFileData(Intent intent) {
         List<String> uris = new ArrayList<>();
         if (intent != null) {
             if (intent.getDataString() != null) {
@@ -146,15 +147,21 @@ public class FilePicker extends PickerManager {
                 }
             }
 
-            processFiles(uris);
+            return processFiles(uris);
         }
+        return null;
     }
 
-    private void processFiles(List<String> uris) {
+    private ProcessingHandle processFiles(List<String> uris) {
         FileProcessorThread thread = new FileProcessorThread(getContext(), getFileObjects(uris), cacheLocation);
         thread.setFilePickerCallback(callback);
         thread.setRequestId(requestId);
-        thread.start();
+        thread.setParallelism(parallelism);
+        thread.setChecksumAlgorithm(checksumAlgorithm);
+        thread.setReuseImports(reuseImports);
+        thread.setReuseRenditions(reuseRenditions);
+        thread.setProcessingCallback(processingCallback);
+        return ProcessingEngine.getInstance().submit(thread);
     }
 
     private void onError(final String errorMessage) {
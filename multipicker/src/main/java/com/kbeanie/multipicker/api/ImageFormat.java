@@ -0,0 +1,25 @@
+package com.kbeanie.multipicker.api;
+
+/**
+ * Formats in which generated images (thumbnails, previews etc) can be saved
+ */
+public interface ImageFormat {
+    int JPEG = 1;
+    /**
+     * Lossless, the quality is ignored
+     */
+    int PNG = 2;
+    /**
+     * Lossy, or lossless at quality 100
+     */
+    int WEBP = 3;
+    /**
+     * Same as {@link #WEBP} before Android 11
+     */
+    int WEBP_LOSSY = 4;
+    /**
+     * Lossless, the quality sets how hard the encoder tries to make the file small. Before Android 11,
+     * same as {@link #WEBP}, which is only lossless at quality 100.
+     */
+    int WEBP_LOSSLESS = 5;
+}
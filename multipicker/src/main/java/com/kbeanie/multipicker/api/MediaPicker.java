@@ -8,10 +8,12 @@ import android.net.Uri;
 import android.os.Build;
 import android.os.Environment;
 import android.support.v4.app.Fragment;
+import android.webkit.MimeTypeMap;
 
 import com.kbeanie.multipicker.api.callbacks.FilePickerCallback;
 import com.kbeanie.multipicker.api.callbacks.ImagePickerCallback;
 import com.kbeanie.multipicker.api.callbacks.MediaPickerCallback;
+import com.kbeanie.multipicker.api.callbacks.ProcessingCallback;
 import com.kbeanie.multipicker.api.callbacks.VideoPickerCallback;
 import com.kbeanie.multipicker.api.entity.ChosenFile;
 import com.kbeanie.multipicker.api.entity.ChosenImage;
@@ -20,12 +22,14 @@ import com.kbeanie.multipicker.api.exceptions.PickerException;
 import com.kbeanie.multipicker.core.PickerManager;
 import com.kbeanie.multipicker.core.threads.FileProcessorThread;
 import com.kbeanie.multipicker.core.threads.ImageProcessorThread;
+import com.kbeanie.multipicker.core.threads.ProcessingEngine;
 import com.kbeanie.multipicker.core.threads.VideoProcessorThread;
 import com.kbeanie.multipicker.utils.LogUtils;
 
 import java.io.File;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Locale;
 
 /**
  * This is not yet full proof. It has bugs, which doesn't work on all devices. Use this at your own risk.
@@ -33,6 +37,7 @@ import java.util.List;
 public class MediaPicker extends PickerManager implements FilePickerCallback, ImagePickerCallback, VideoPickerCallback {
     private final static String TAG = MediaPicker.class.getSimpleName();
     private MediaPickerCallback callback;
+    private MediaProcessingHandle handle;
 
     private boolean generateThumbnails = true;
     private boolean generateMetadata = true;
@@ -142,7 +147,7 @@ public class MediaPicker extends PickerManager implements FilePickerCallback, Im
      */
     @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
     @Override
-    public void submit(Intent intent) {
+    public ProcessingHandle submit(Intent intent) {
         List<String> uris = new ArrayList<>();
         if (intent != null) {
             if (intent.getDataString() != null && isClipDataApi() && intent.getClipData() == null) {
@@ -174,14 +179,80 @@ public class MediaPicker extends PickerManager implements FilePickerCallback, Im
             }
         }
 
-        processMedia(uris);
+        return processMedia(uris);
     }
 
-    private void processMedia(List<String> uris) {
-        FileProcessorThread thread = new FileProcessorThread(getContext(), getFileObjects(uris), cacheLocation);
-        thread.setFilePickerCallback(this);
-        thread.setRequestId(requestId);
-        thread.start();
+    private ProcessingHandle processMedia(List<String> uris) {
+        handle = new MediaProcessingHandle();
+        results = new ArrayList<>();
+        pendingStages = 0;
+
+        // Route everything with a known type straight to the image/video stage. Only the files
+        // whose type can't be told from the uri need the generic pass first.
+        List<ChosenImage> images = new ArrayList<>();
+        List<Integer> imagePositions = new ArrayList<>();
+        List<ChosenVideo> videos = new ArrayList<>();
+        List<Integer> videoPositions = new ArrayList<>();
+        List<ChosenFile> unknownFiles = new ArrayList<>();
+        unknownPositions = new ArrayList<>();
+        for (int i = 0; i < uris.size(); i++) {
+            String uri = uris.get(i);
+            String mimeType = guessMimeType(uri);
+            LogUtils.d(TAG, "processMedia: " + uri + " -> " + mimeType);
+            if (mimeType != null && mimeType.startsWith("image")) {
+                ChosenImage image = newImage(uri);
+                images.add(image);
+                imagePositions.add(i);
+                results.add(image);
+            } else if (mimeType != null && mimeType.startsWith("video")) {
+                ChosenVideo video = newVideo(uri);
+                videos.add(video);
+                videoPositions.add(i);
+                results.add(video);
+            } else {
+                ChosenFile file = newFile(uri);
+                unknownFiles.add(file);
+                unknownPositions.add(i);
+                results.add(file);
+            }
+        }
+
+        if (results.isEmpty()) {
+            if (processingCallback != null) {
+                processingCallback.onBatchComplete(results);
+            }
+            return handle;
+        }
+        processImages(images, imagePositions);
+        processVideos(videos, videoPositions);
+        if (!unknownFiles.isEmpty()) {
+            pendingStages++;
+            FileProcessorThread thread = new FileProcessorThread(getContext(), unknownFiles, cacheLocation);
+            thread.setFilePickerCallback(this);
+            thread.setRequestId(requestId);
+            thread.setParallelism(parallelism);
+            thread.setChecksumAlgorithm(checksumAlgorithm);
+            thread.setReuseImports(reuseImports);
+            thread.setReuseRenditions(reuseRenditions);
+            thread.setProcessingCallback(getStageCallback(unknownPositions, false));
+            handle.addStage(ProcessingEngine.getInstance().submit(thread));
+        }
+        return handle;
+    }
+
+    private String guessMimeType(String uri) {
+        try {
+            if (uri.startsWith("content:")) {
+                return getContext().getContentResolver().getType(Uri.parse(uri));
+            }
+            String extension = MimeTypeMap.getFileExtensionFromUrl(uri);
+            if (extension != null && !extension.isEmpty()) {
+                return MimeTypeMap.getSingleton().getMimeTypeFromExtension(extension.toLowerCase(Locale.ENGLISH));
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+        return null;
     }
 
     /**
@@ -193,64 +264,135 @@ public class MediaPicker extends PickerManager implements FilePickerCallback, Im
         this.callback = callback;
     }
 
-    private List<ChosenFile> getFileObjects(List<String> uris) {
-        List<ChosenFile> files = new ArrayList<>();
-        for (String uri : uris) {
-            ChosenFile file = new ChosenFile();
-            file.setQueryUri(uri);
-            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
-                file.setDirectoryType(Environment.DIRECTORY_DOCUMENTS);
-            } else {
-                file.setDirectoryType(Environment.DIRECTORY_DOWNLOADS);
-            }
-            file.setType("file");
-            files.add(file);
+    private ChosenFile newFile(String uri) {
+        ChosenFile file = new ChosenFile();
+        file.setQueryUri(uri);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+            file.setDirectoryType(Environment.DIRECTORY_DOCUMENTS);
+        } else {
+            file.setDirectoryType(Environment.DIRECTORY_DOWNLOADS);
         }
-        return files;
+        file.setType("file");
+        return file;
+    }
+
+    private ChosenImage newImage(String uri) {
+        ChosenImage image = new ChosenImage();
+        image.setQueryUri(uri);
+        image.setType("image");
+        image.setDirectoryType(Environment.DIRECTORY_PICTURES);
+        return image;
     }
 
-    private List<ChosenImage> imagesToProcess;
-    private List<ChosenVideo> videosToProcess;
+    private ChosenVideo newVideo(String uri) {
+        ChosenVideo video = new ChosenVideo();
+        video.setQueryUri(uri);
+        video.setType("video");
+        video.setDirectoryType(Environment.DIRECTORY_MOVIES);
+        return video;
+    }
+
+    // Stages run at the same time. All of them have to be done before the media is delivered.
+    // Only touched on the UI thread.
+    private int pendingStages;
+    private List<ChosenFile> results;
+    private List<Integer> unknownPositions;
 
+    private void processImages(List<ChosenImage> images, List<Integer> positions) {
+        if (images.isEmpty()) {
+            return;
+        }
+        pendingStages++;
+        ImageProcessorThread imgThread = new ImageProcessorThread(getContext(), images, cacheLocation);
+        imgThread.setImagePickerCallback(this);
+        imgThread.setShouldGenerateMetadata(generateMetadata);
+        imgThread.setShouldGenerateThumbnails(generateThumbnails);
+        imgThread.setRequestId(requestId);
+        imgThread.setParallelism(parallelism);
+        imgThread.setChecksumAlgorithm(checksumAlgorithm);
+        imgThread.setReuseImports(reuseImports);
+        imgThread.setReuseRenditions(reuseRenditions);
+        imgThread.setProcessingCallback(getStageCallback(positions, true));
+        handle.addStage(ProcessingEngine.getInstance().submit(imgThread));
+    }
+
+    private void processVideos(List<ChosenVideo> videos, List<Integer> positions) {
+        if (videos.isEmpty()) {
+            return;
+        }
+        pendingStages++;
+        VideoProcessorThread vidThread = new VideoProcessorThread(getContext(), videos, cacheLocation);
+        vidThread.setRequestId(requestId);
+        vidThread.setParallelism(parallelism);
+        vidThread.setChecksumAlgorithm(checksumAlgorithm);
+        vidThread.setReuseImports(reuseImports);
+        vidThread.setReuseRenditions(reuseRenditions);
+        vidThread.setShouldGenerateMetadata(generateMetadata);
+        vidThread.setShouldGeneratePreviewImages(generatePreviewImages);
+        vidThread.setVideoPickerCallback(this);
+        vidThread.setProcessingCallback(getStageCallback(positions, true));
+        handle.addStage(ProcessingEngine.getInstance().submit(vidThread));
+    }
+
+    // Files whose type wasn't known up front, now imported and with a mime type
     @Override
     public void onFilesChosen(List<ChosenFile> files) {
-        imagesToProcess = new ArrayList<>();
-        videosToProcess = new ArrayList<>();
-        for (ChosenFile file : files) {
-            if (file.getMimeType().contains("image")) {
-                ChosenImage image = new ChosenImage();
-                image.setQueryUri(Uri.fromFile(new File(file.getOriginalPath())).toString());
-                image.setType("image");
-                image.setDirectoryType(Environment.DIRECTORY_PICTURES);
+        List<ChosenImage> images = new ArrayList<>();
+        List<Integer> imagePositions = new ArrayList<>();
+        List<ChosenVideo> videos = new ArrayList<>();
+        List<Integer> videoPositions = new ArrayList<>();
+        for (int i = 0; i < files.size(); i++) {
+            ChosenFile file = files.get(i);
+            int position = unknownPositions.get(i);
+            String mimeType = file.getMimeType();
+            if (file.isSuccess() && mimeType != null && mimeType.contains("image")) {
+                ChosenImage image = newImage(Uri.fromFile(new File(file.getOriginalPath())).toString());
                 image.setDisplayName(file.getDisplayName());
                 image.setExtension(file.getExtension());
-                imagesToProcess.add(image);
-            } else if (file.getMimeType().contains("video")) {
-                ChosenVideo video = new ChosenVideo();
-                video.setQueryUri(Uri.fromFile(new File(file.getOriginalPath())).toString());
-                video.setType("video");
-                video.setDirectoryType(Environment.DIRECTORY_MOVIES);
+                images.add(image);
+                imagePositions.add(position);
+                results.set(position, image);
+            } else if (file.isSuccess() && mimeType != null && mimeType.contains("video")) {
+                ChosenVideo video = newVideo(Uri.fromFile(new File(file.getOriginalPath())).toString());
                 video.setDisplayName(file.getDisplayName());
                 video.setExtension(file.getExtension());
-                videosToProcess.add(video);
+                videos.add(video);
+                videoPositions.add(position);
+                results.set(position, video);
+            } else if (processingCallback != null && file.isSuccess()) {
+                // Failed imports were already reported by their stage
+                processingCallback.onItemFailed(file, position);
             }
         }
+        processImages(images, imagePositions);
+        processVideos(videos, videoPositions);
+        onStageDone();
+    }
 
-        if (imagesToProcess != null && imagesToProcess.size() > 0) {
-            ImageProcessorThread imgThread = new ImageProcessorThread(getContext(), imagesToProcess, cacheLocation);
-            imgThread.setImagePickerCallback(this);
-            imgThread.setShouldGenerateMetadata(generateMetadata);
-            imgThread.setShouldGenerateThumbnails(generateThumbnails);
-            imgThread.setRequestId(requestId);
-            imgThread.start();
-        } else if (videosToProcess != null && videosToProcess.size() > 0) {
-            VideoProcessorThread vidThread = new VideoProcessorThread(getContext(), videosToProcess, cacheLocation);
-            vidThread.setRequestId(requestId);
-            vidThread.setShouldGenerateMetadata(generateMetadata);
-            vidThread.setShouldGeneratePreviewImages(generatePreviewImages);
-            vidThread.setVideoPickerCallback(this);
-            vidThread.start();
+    // Reports the items of one stage with their position in the original selection. Files imported
+    // before their type is known are only ready once the stage of their type is done.
+    private ProcessingCallback getStageCallback(final List<Integer> positions, final boolean reportsReady) {
+        if (processingCallback == null) {
+            return null;
         }
+        return new ProcessingCallback() {
+            @Override
+            public void onItemReady(ChosenFile file, int position) {
+                if (reportsReady) {
+                    processingCallback.onItemReady(file, positions.get(position));
+                }
+            }
+
+            @Override
+            public void onItemFailed(ChosenFile file, int position) {
+                processingCallback.onItemFailed(file, position == -1 ? -1 : positions.get(position));
+            }
+
+            @Override
+            public void onBatchComplete(List<? extends ChosenFile> files) {
+                // Reported once all the stages are done
+            }
+        };
     }
 
     @Override
@@ -258,31 +400,62 @@ public class MediaPicker extends PickerManager implements FilePickerCallback, Im
 
     }
 
-    private List<ChosenImage> images;
-    private List<ChosenVideo> videos;
-
     @Override
     public void onImagesChosen(List<ChosenImage> images) {
-        this.images = images;
-        if (videosToProcess != null && videosToProcess.size() > 0) {
-            VideoProcessorThread vidThread = new VideoProcessorThread(getContext(), videosToProcess, cacheLocation);
-            vidThread.setRequestId(requestId);
-            vidThread.setShouldGenerateMetadata(generateMetadata);
-            vidThread.setShouldGeneratePreviewImages(generatePreviewImages);
-            vidThread.setVideoPickerCallback(this);
-            vidThread.start();
-        } else {
-            if (callback != null) {
-                callback.onMediaChosen(images, null);
-            }
-        }
+        onStageDone();
     }
 
     @Override
     public void onVideosChosen(List<ChosenVideo> videos) {
-        this.videos = videos;
+        onStageDone();
+    }
+
+    private void onStageDone() {
+        pendingStages--;
+        if (pendingStages > 0) {
+            return;
+        }
+        // Images and videos may come from more than one stage, so they are collected in the order they were chosen
+        List<ChosenImage> images = new ArrayList<>();
+        List<ChosenVideo> videos = new ArrayList<>();
+        for (ChosenFile result : results) {
+            if (result instanceof ChosenImage) {
+                images.add((ChosenImage) result);
+            } else if (result instanceof ChosenVideo) {
+                videos.add((ChosenVideo) result);
+            }
+        }
+        if (processingCallback != null) {
+            processingCallback.onBatchComplete(results);
+        }
         if (callback != null) {
-            callback.onMediaChosen(images, videos);
+            callback.onMediaChosen(images.isEmpty() ? null : images, videos.isEmpty() ? null : videos);
+        }
+    }
+
+    // Media is processed in stages, cancelling has to reach the stage that is running or comes next
+    private final static class MediaProcessingHandle implements ProcessingHandle {
+        private final List<ProcessingHandle> stages = new ArrayList<>();
+        private boolean cancelled;
+
+        synchronized void addStage(ProcessingHandle stage) {
+            stages.add(stage);
+            if (cancelled) {
+                stage.cancel();
+            }
+        }
+
+        @Override
+        public synchronized void cancel() {
+            cancelled = true;
+            for (ProcessingHandle stage : stages) {
+                stage.cancel();
+            }
+        }
+
+        @Override
+        public synchronized boolean isCancelled() {
+            return cancelled;
         }
     }
 }
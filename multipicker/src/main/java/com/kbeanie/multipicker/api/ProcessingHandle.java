@@ -0,0 +1,19 @@
+package com.kbeanie.multipicker.api;
+
+/**
+ * Handle to the processing of the chosen files, returned by
+ * {@link com.kbeanie.multipicker.core.PickerManager#submit(android.content.Intent)}
+ */
+public interface ProcessingHandle {
+    /**
+     * Stop processing the chosen files. Copies and image decodes in progress are aborted and the
+     * files which were not completely processed yet are deleted. No further callbacks are delivered
+     * for this batch.
+     * <p/>
+     * Files already delivered through {@link com.kbeanie.multipicker.api.callbacks.ProcessingCallback#onItemReady(com.kbeanie.multipicker.api.entity.ChosenFile, int)}
+     * are left untouched.
+     */
+    void cancel();
+
+    boolean isCancelled();
+}
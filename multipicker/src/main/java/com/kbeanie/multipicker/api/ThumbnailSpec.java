@@ -0,0 +1,61 @@
+package com.kbeanie.multipicker.api;
+
+/**
+ * Describes one thumbnail to be generated for each chosen image or video.
+ * <p/>
+ * The thumbnail is scaled down to fit in the bounding box, keeping the aspect ratio. It is never
+ * scaled up, an image smaller than the box is saved with its own size.
+ */
+public class ThumbnailSpec {
+    private final int maxWidth;
+    private final int maxHeight;
+    private final int format;
+    private final int quality;
+
+    /**
+     * JPEG thumbnail with max quality
+     *
+     * @param maxWidth
+     * @param maxHeight
+     */
+    public ThumbnailSpec(int maxWidth, int maxHeight) {
+        this(maxWidth, maxHeight, ImageFormat.JPEG, 100);
+    }
+
+    /**
+     * @param maxWidth
+     * @param maxHeight
+     * @param format    One of {@link ImageFormat}
+     * @param quality   Hint to the compressor, 0-100. Ignored by lossless formats.
+     */
+    public ThumbnailSpec(int maxWidth, int maxHeight, int format, int quality) {
+        if (maxWidth < 1 || maxHeight < 1) {
+            throw new IllegalArgumentException("Thumbnail bounds must be at least 1x1");
+        }
+        this.maxWidth = maxWidth;
+        this.maxHeight = maxHeight;
+        this.format = format;
+        this.quality = quality;
+    }
+
+    public int getMaxWidth() {
+        return maxWidth;
+    }
+
+    public int getMaxHeight() {
+        return maxHeight;
+    }
+
+    public int getFormat() {
+        return format;
+    }
+
+    public int getQuality() {
+        return quality;
+    }
+
+    @Override
+    public String toString() {
+        return maxWidth + "x" + maxHeight + " format: " + format + " quality: " + quality;
+    }
+}
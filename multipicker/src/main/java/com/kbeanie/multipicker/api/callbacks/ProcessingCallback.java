@@ -0,0 +1,39 @@
+package com.kbeanie.multipicker.api.callbacks;
+
+import com.kbeanie.multipicker.api.entity.ChosenFile;
+
+import java.util.List;
+
+/**
+ * Optional callback which is notified as each chosen file is processed, so that the results can
+ * be used before the whole batch is done. All the methods are called on the UI thread.
+ * <p/>
+ * The picker callback ({@link ImagePickerCallback#onImagesChosen(List)} etc) is still called once
+ * with the complete list.
+ */
+public interface ProcessingCallback {
+    /**
+     * A file is completely processed. For images, this includes resizing and thumbnails.
+     *
+     * @param file     {@link com.kbeanie.multipicker.api.entity.ChosenImage},
+     *                 {@link com.kbeanie.multipicker.api.entity.ChosenVideo} etc. depending on the picker
+     * @param position Position of the file in the order in which the files were chosen
+     */
+    void onItemReady(ChosenFile file, int position);
+
+    /**
+     * A file could not be processed.
+     *
+     * @param file
+     * @param position Position of the file in the order in which the files were chosen
+     */
+    void onItemFailed(ChosenFile file, int position);
+
+    /**
+     * All the files are done. Called after the last {@link #onItemReady(ChosenFile, int)} or
+     * {@link #onItemFailed(ChosenFile, int)}
+     *
+     * @param files In the order in which they were chosen
+     */
+    void onBatchComplete(List<? extends ChosenFile> files);
+}
@@ -46,6 +46,12 @@ public class ChosenFile implements Parcelable {
 
     private String tempFile = "";
 
+    /**
+     * Checksum of the processed file, computed while it was copied
+     */
+    private String checksum;
+    private int checksumAlgorithm;
+
     public ChosenFile() {
 
     }
@@ -64,6 +70,8 @@ public class ChosenFile implements Parcelable {
         directoryType = in.readString();
         requestId = in.readInt();
         tempFile = in.readString();
+        checksum = in.readString();
+        checksumAlgorithm = in.readInt();
     }
 
     @Override
@@ -81,6 +89,8 @@ public class ChosenFile implements Parcelable {
         dest.writeString(directoryType);
         dest.writeInt(requestId);
         dest.writeString(tempFile);
+        dest.writeString(checksum);
+        dest.writeInt(checksumAlgorithm);
     }
 
     public static final Creator<ChosenFile> CREATOR = new Creator<ChosenFile>() {
@@ -299,7 +309,12 @@ public class ChosenFile implements Parcelable {
         return 0;
     }
 
-
+    /**
+     * File the processed file was made from, ex: the image before it was resized. Copies made by the
+     * library are deleted once the file is processed, and this is then empty.
+     *
+     * @return
+     */
     public String getTempFile() {
         return tempFile;
     }
@@ -308,6 +323,32 @@ public class ChosenFile implements Parcelable {
         this.tempFile = tempFile;
     }
 
+    /**
+     * Checksum of the processed file in hexadecimal. Only available if a checksum algorithm was set on the picker.
+     *
+     * @return
+     */
+    public String getChecksum() {
+        return checksum;
+    }
+
+    public void setChecksum(String checksum) {
+        this.checksum = checksum;
+    }
+
+    /**
+     * One of {@link com.kbeanie.multipicker.api.ChecksumAlgorithm}
+     *
+     * @return
+     */
+    public int getChecksumAlgorithm() {
+        return checksumAlgorithm;
+    }
+
+    public void setChecksumAlgorithm(int checksumAlgorithm) {
+        this.checksumAlgorithm = checksumAlgorithm;
+    }
+
     @Override
     public boolean equals(Object obj) {
         ChosenFile other = (ChosenFile)obj;
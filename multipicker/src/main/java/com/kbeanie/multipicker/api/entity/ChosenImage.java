@@ -3,6 +3,9 @@ package com.kbeanie.multipicker.api.entity;
 import android.media.ExifInterface;
 import android.os.Parcel;
 
+import java.util.ArrayList;
+import java.util.List;
+
 /**
  * Contains details about the image that was chosen
  */
@@ -12,6 +15,8 @@ public class ChosenImage extends ChosenFile {
     private String thumbnailSmallPath;
     private int width;
     private int height;
+    private List<String> thumbnails = new ArrayList<>();
+    private int quality;
 
     public ChosenImage(){
 
@@ -24,6 +29,8 @@ public class ChosenImage extends ChosenFile {
         this.thumbnailSmallPath = in.readString();
         this.width = in.readInt();
         this.height = in.readInt();
+        this.thumbnails = in.createStringArrayList();
+        this.quality = in.readInt();
     }
 
 
@@ -78,6 +85,21 @@ public class ChosenImage extends ChosenFile {
         this.thumbnailSmallPath = thumbnailSmallPath;
     }
 
+    /**
+     * Get the paths to the thumbnails generated from the {@link com.kbeanie.multipicker.api.ThumbnailSpec}s,
+     * in the same order. The first two are also available as {@link #getThumbnailPath()} and
+     * {@link #getThumbnailSmallPath()}
+     *
+     * @return
+     */
+    public List<String> getThumbnails() {
+        return thumbnails;
+    }
+
+    public void setThumbnails(List<String> thumbnails) {
+        this.thumbnails = thumbnails;
+    }
+
     /**
      * Get the image width
      *
@@ -104,6 +126,20 @@ public class ChosenImage extends ChosenFile {
         this.height = height;
     }
 
+    /**
+     * Get the quality the image was saved with, when it was resized or compressed to fit in a max file size.
+     * 0 if the original file was kept as it is.
+     *
+     * @return
+     */
+    public int getQuality() {
+        return quality;
+    }
+
+    public void setQuality(int quality) {
+        this.quality = quality;
+    }
+
     private final static String STRING_FORMAT = "Height: %s, Width: %s, Orientation: %s";
 
     @Override
@@ -155,5 +191,7 @@ public class ChosenImage extends ChosenFile {
         dest.writeString(thumbnailSmallPath);
         dest.writeInt(width);
         dest.writeInt(height);
+        dest.writeStringList(thumbnails);
+        dest.writeInt(quality);
     }
 }
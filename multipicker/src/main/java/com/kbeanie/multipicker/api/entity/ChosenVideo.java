@@ -2,6 +2,9 @@ package com.kbeanie.multipicker.api.entity;
 
 import android.os.Parcel;
 
+import java.util.ArrayList;
+import java.util.List;
+
 /**
  * Created by kbibek on 2/20/16.
  */
@@ -13,6 +16,7 @@ public class ChosenVideo extends ChosenFile {
     private String previewThumbnail;
     private String previewThumbnailSmall;
     private int orientation;
+    private List<String> previewThumbnails = new ArrayList<>();
 
     public ChosenVideo(){
 
@@ -27,6 +31,7 @@ public class ChosenVideo extends ChosenFile {
         this.previewThumbnail = in.readString();
         this.previewThumbnailSmall = in.readString();
         this.orientation = in.readInt();
+        this.previewThumbnails = in.createStringArrayList();
     }
 
     public static final Creator<ChosenVideo> CREATOR = new Creator<ChosenVideo>() {
@@ -51,6 +56,7 @@ public class ChosenVideo extends ChosenFile {
         dest.writeString(previewThumbnail);
         dest.writeString(previewThumbnailSmall);
         dest.writeInt(orientation);
+        dest.writeStringList(previewThumbnails);
     }
 
     /**
@@ -125,6 +131,20 @@ public class ChosenVideo extends ChosenFile {
         this.previewThumbnailSmall = previewThumbnailSmall;
     }
 
+    /**
+     * Get the paths to the preview thumbnails generated from the {@link com.kbeanie.multipicker.api.ThumbnailSpec}s,
+     * in the same order. The first two are also available as {@link #getPreviewThumbnail()} and
+     * {@link #getPreviewThumbnailSmall()}
+     * @return
+     */
+    public List<String> getPreviewThumbnails() {
+        return previewThumbnails;
+    }
+
+    public void setPreviewThumbnails(List<String> previewThumbnails) {
+        this.previewThumbnails = previewThumbnails;
+    }
+
     /**
      * Get the orientation of the video
      * @return
@@ -13,16 +13,21 @@ import android.support.v4.content.FileProvider;
 
 import com.kbeanie.multipicker.api.CacheLocation;
 import com.kbeanie.multipicker.api.CameraImagePicker;
+import com.kbeanie.multipicker.api.ImageFormat;
 import com.kbeanie.multipicker.api.ImagePicker;
+import com.kbeanie.multipicker.api.ProcessingHandle;
 import com.kbeanie.multipicker.api.Picker;
+import com.kbeanie.multipicker.api.ThumbnailSpec;
 import com.kbeanie.multipicker.api.callbacks.ImagePickerCallback;
 import com.kbeanie.multipicker.api.entity.ChosenImage;
 import com.kbeanie.multipicker.api.exceptions.PickerException;
 import com.kbeanie.multipicker.core.threads.ImageProcessorThread;
+import com.kbeanie.multipicker.core.threads.ProcessingEngine;
 import com.kbeanie.multipicker.utils.LogUtils;
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 /**
@@ -35,8 +40,13 @@ public abstract class ImagePickerImpl extends PickerManager {
     private boolean generateThumbnails = true;
     private boolean generateMetadata = true;
     private int quality = 100;
+    private int outputFormat = ImageFormat.JPEG;
+    private long maxFileSize = -1;
     private int maxWidth = -1;
     private int maxHeight = -1;
+    private int embeddedThumbnailWidth = -1;
+    private int embeddedThumbnailHeight = -1;
+    private List<ThumbnailSpec> thumbnailSpecs;
 
     protected ImagePickerCallback callback;
 
@@ -93,6 +103,34 @@ public abstract class ImagePickerImpl extends PickerManager {
         this.path = path;
     }
 
+    /**
+     * Describe exactly which thumbnails to generate, instead of the default big and small JPEG ones.
+     * Each thumbnail fits in the bounds of its spec, and is saved with its format and quality.
+     * <p/>
+     * The paths are available from {@link ChosenImage#getThumbnails()}, in the same order. The first two
+     * also fill {@link ChosenImage#getThumbnailPath()} and {@link ChosenImage#getThumbnailSmallPath()}.
+     *
+     * @param thumbnailSpecs
+     */
+    public void setThumbnailSpecs(ThumbnailSpec... thumbnailSpecs) {
+        this.thumbnailSpecs = Arrays.asList(thumbnailSpecs);
+    }
+
+    /**
+     * Use the thumbnail embedded in the EXIF tags of camera pictures as the small thumbnail, when it
+     * is at least this large. It is saved as it is, which is much faster than decoding the image.
+     * <p/>
+     * The small thumbnail is still generated from the image when there is no embedded one, or when it
+     * is too small, letterboxed or would need to be rotated. Not used with {@link #setThumbnailSpecs(ThumbnailSpec...)}.
+     *
+     * @param minWidth  Most cameras embed 160x120 thumbnails
+     * @param minHeight
+     */
+    public void useEmbeddedThumbnails(int minWidth, int minHeight) {
+        this.embeddedThumbnailWidth = minWidth;
+        this.embeddedThumbnailHeight = minHeight;
+    }
+
     public void setImagePickerCallback(ImagePickerCallback callback) {
         this.callback = callback;
     }
@@ -110,6 +148,29 @@ public abstract class ImagePickerImpl extends PickerManager {
         this.quality = quality;
     }
 
+    /**
+     * Format of the resized images and the default thumbnails. Default is {@link ImageFormat#JPEG}.
+     * WebP files are usually a third smaller than JPEG ones of the same quality.
+     * <p/>
+     * Only JPEG files keep the EXIF orientation, images in other formats are saved upright.
+     *
+     * @param outputFormat One of {@link ImageFormat}
+     */
+    public void setOutputFormat(int outputFormat) {
+        this.outputFormat = outputFormat;
+    }
+
+    /**
+     * Make sure the chosen image isn't larger than this many bytes. Larger images are saved again, at the
+     * highest quality which fits, up to the one set with {@link #setQuality(int)}. If even a low quality
+     * doesn't fit, the image is also scaled down. The quality used is in {@link ChosenImage#getQuality()}.
+     *
+     * @param maxFileSize In bytes, ex: 500 * 1024
+     */
+    public void setMaxFileSize(long maxFileSize) {
+        this.maxFileSize = maxFileSize;
+    }
+
     /**
      * Use this method to set the max size of the generated image. The final bitmap will be downscaled based on
      * these values.
@@ -183,27 +244,28 @@ public abstract class ImagePickerImpl extends PickerManager {
      * @param data
      */
     @Override
-    public void submit(Intent data) {
+    public ProcessingHandle submit(Intent data) {
         if (pickerType == Picker.PICK_IMAGE_CAMERA) {
-            handleCameraData(data);
+            return handleCameraData(data);
         } else if (pickerType == Picker.PICK_IMAGE_DEVICE) {
-            handleGalleryData(data);
+            return handleGalleryData(data);
         }
+        return null;
     }
 
-    private void handleCameraData(Intent data) {
+    private ProcessingHandle handleCameraData(Intent data) {
         LogUtils.d(TAG, "handleCameraData: " + path);
         if (path == null || path.isEmpty()) {
             throw new RuntimeException("Camera Path cannot be null. Re-initialize with correct path value.");
         } else {
             List<String> uris = new ArrayList<>();
             uris.add(Uri.fromFile(new File(path)).toString());
-            processImages(uris);
+            return processImages(uris);
         }
     }
 
     @SuppressLint("NewApi")
-    private void handleGalleryData(Intent intent) {
+    private ProcessingHandle handleGalleryData(Intent intent) {
         List<String> uris = new ArrayList<>();
         if (intent != null) {
             if (intent.getDataString() != null && isClipDataApi() && intent.getClipData() == null) {
@@ -228,8 +290,9 @@ public abstract class ImagePickerImpl extends PickerManager {
                 }
             }
 
-            processImages(uris);
+            return processImages(uris);
         }
+        return null;
     }
 
     private void onError(final String errorMessage) {
@@ -247,17 +310,26 @@ public abstract class ImagePickerImpl extends PickerManager {
         }
     }
 
-    private void processImages(List<String> uris) {
+    private ProcessingHandle processImages(List<String> uris) {
         ImageProcessorThread thread = new ImageProcessorThread(getContext(), getImageObjects(uris), cacheLocation);
         if (maxWidth != -1 && maxHeight != -1) {
             thread.setOutputImageDimensions(maxWidth, maxHeight);
         }
         thread.setRequestId(requestId);
+        thread.setParallelism(parallelism);
+        thread.setChecksumAlgorithm(checksumAlgorithm);
+        thread.setReuseImports(reuseImports);
+        thread.setReuseRenditions(reuseRenditions);
+        thread.setProcessingCallback(processingCallback);
         thread.setShouldGenerateThumbnails(generateThumbnails);
         thread.setShouldGenerateMetadata(generateMetadata);
         thread.setOutputImageQuality(quality);
+        thread.setOutputFormat(outputFormat);
+        thread.setMaxFileSize(maxFileSize);
+        thread.setThumbnailSpecs(thumbnailSpecs);
+        thread.setEmbeddedThumbnailSize(embeddedThumbnailWidth, embeddedThumbnailHeight);
         thread.setImagePickerCallback(callback);
-        thread.start();
+        return ProcessingEngine.getInstance().submit(thread);
     }
 
     private List<ChosenImage> getImageObjects(List<String> uris) {
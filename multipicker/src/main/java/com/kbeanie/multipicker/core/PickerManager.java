@@ -15,6 +15,9 @@ import android.provider.OpenableColumns;
 import android.support.v4.app.Fragment;
 
 import com.kbeanie.multipicker.api.CacheLocation;
+import com.kbeanie.multipicker.api.ChecksumAlgorithm;
+import com.kbeanie.multipicker.api.ProcessingHandle;
+import com.kbeanie.multipicker.api.callbacks.ProcessingCallback;
 import com.kbeanie.multipicker.api.exceptions.PickerException;
 import com.kbeanie.multipicker.utils.FileUtils;
 import com.kbeanie.multipicker.utils.LogUtils;
@@ -45,6 +48,16 @@ public abstract class PickerManager {
 
     protected boolean allowMultiple;
 
+    protected int parallelism = 1;
+
+    protected ProcessingCallback processingCallback;
+
+    protected int checksumAlgorithm = ChecksumAlgorithm.NONE;
+
+    protected boolean reuseImports;
+
+    protected boolean reuseRenditions;
+
     public PickerManager(Activity activity, int pickerType) {
         this.activity = activity;
         this.pickerType = pickerType;
@@ -122,8 +135,10 @@ public abstract class PickerManager {
      * This method should be called after {@link Activity#onActivityResult(int, int, Intent)} is  called.
      *
      * @param data
+     * @return Handle to cancel the processing of the chosen files, if the user backs out. Null if
+     * there is nothing to process.
      */
-    public abstract void submit(Intent data);
+    public abstract ProcessingHandle submit(Intent data);
 
     protected String buildFilePath(String extension, String type) throws PickerException {
         String directoryPath = getDirectory(type);
@@ -181,6 +196,62 @@ public abstract class PickerManager {
         return (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN);
     }
 
+    /**
+     * Number of chosen files which are processed at the same time, when multiple files are chosen.
+     * Default is 1. The results are always delivered in the order in which the files were chosen.
+     * <p/>
+     * The total number of processing threads is capped by {@link com.kbeanie.multipicker.core.threads.ProcessingEngine#setPoolSizes(int, int)}
+     *
+     * @param parallelism
+     */
+    public void setParallelism(int parallelism) {
+        this.parallelism = Math.max(1, parallelism);
+    }
+
+    /**
+     * Optional. Get notified as each of the chosen files is processed, instead of waiting for
+     * all of them to be done.
+     *
+     * @param processingCallback
+     */
+    public void setProcessingCallback(ProcessingCallback processingCallback) {
+        this.processingCallback = processingCallback;
+    }
+
+    /**
+     * Compute a checksum of each chosen file while it is copied. Default is {@link ChecksumAlgorithm#NONE}.
+     * See {@link com.kbeanie.multipicker.api.entity.ChosenFile#getChecksum()}
+     *
+     * @param checksumAlgorithm One of {@link ChecksumAlgorithm}
+     */
+    public void setChecksumAlgorithm(int checksumAlgorithm) {
+        this.checksumAlgorithm = checksumAlgorithm;
+    }
+
+    /**
+     * Give back the files of an earlier pick when the same item is chosen again, with the same settings,
+     * instead of copying and processing it again. The source has to be unchanged (same size and last
+     * modified time) and all the earlier outputs still there. Default is false.
+     *
+     * @param reuseImports
+     */
+    public void setReuseImports(boolean reuseImports) {
+        this.reuseImports = reuseImports;
+    }
+
+    /**
+     * Give back the resized images, thumbnails and video previews generated earlier for the same content
+     * with the same settings, instead of generating them again. Unlike {@link #setReuseImports(boolean)},
+     * the content is matched, so a new copy of the same file still hits. Default is false.
+     * <p/>
+     * See {@link storage.RenditionCache#getHitCount()} for how often the renditions are reused.
+     *
+     * @param reuseRenditions
+     */
+    public void setReuseRenditions(boolean reuseRenditions) {
+        this.reuseRenditions = reuseRenditions;
+    }
+
     public void setRequestId(int requestId) {
         this.requestId = requestId;
     }
@@ -11,15 +11,20 @@ import android.provider.MediaStore;
 import android.support.v4.app.Fragment;
 import android.support.v4.content.FileProvider;
 
+import com.kbeanie.multipicker.api.ImageFormat;
+import com.kbeanie.multipicker.api.ProcessingHandle;
 import com.kbeanie.multipicker.api.Picker;
+import com.kbeanie.multipicker.api.ThumbnailSpec;
 import com.kbeanie.multipicker.api.callbacks.VideoPickerCallback;
 import com.kbeanie.multipicker.api.entity.ChosenVideo;
 import com.kbeanie.multipicker.api.exceptions.PickerException;
+import com.kbeanie.multipicker.core.threads.ProcessingEngine;
 import com.kbeanie.multipicker.core.threads.VideoProcessorThread;
 import com.kbeanie.multipicker.utils.LogUtils;
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 /**
@@ -35,6 +40,8 @@ public abstract class VideoPickerImpl extends PickerManager {
     private boolean generatePreviewImages = true;
     private boolean generateMetadata = true;
     private int quality = 100;
+    private int outputFormat = ImageFormat.JPEG;
+    private List<ThumbnailSpec> thumbnailSpecs;
 
     public VideoPickerImpl(Activity activity, int pickerType) {
         super(activity, pickerType);
@@ -75,6 +82,29 @@ public abstract class VideoPickerImpl extends PickerManager {
         this.quality = quality;
     }
 
+    /**
+     * Format of the preview images and their default thumbnails. Default is {@link ImageFormat#JPEG}.
+     * WebP files are usually a third smaller than JPEG ones of the same quality.
+     *
+     * @param outputFormat One of {@link ImageFormat}
+     */
+    public void setOutputFormat(int outputFormat) {
+        this.outputFormat = outputFormat;
+    }
+
+    /**
+     * Describe exactly which thumbnails to generate, instead of the default big and small JPEG ones.
+     * Each thumbnail fits in the bounds of its spec, and is saved with its format and quality.
+     * <p/>
+     * The paths are available from {@link ChosenVideo#getPreviewThumbnails()}, in the same order. The first two
+     * also fill {@link ChosenVideo#getPreviewThumbnail()} and {@link ChosenVideo#getPreviewThumbnailSmall()}.
+     *
+     * @param thumbnailSpecs
+     */
+    public void setThumbnailSpecs(ThumbnailSpec... thumbnailSpecs) {
+        this.thumbnailSpecs = Arrays.asList(thumbnailSpecs);
+    }
+
     @Override
     protected String pick() throws PickerException {
         if (callback == null) {
@@ -124,15 +154,16 @@ public abstract class VideoPickerImpl extends PickerManager {
     }
 
     @Override
-    public void submit(Intent data) {
+    public ProcessingHandle submit(Intent data) {
         if (pickerType == Picker.PICK_VIDEO_CAMERA) {
-            handleCameraData(data);
+            return handleCameraData(data);
         } else if (pickerType == Picker.PICK_VIDEO_DEVICE) {
-            handleGalleryData(data);
+            return handleGalleryData(data);
         }
+        return null;
     }
 
-    private void handleCameraData(Intent data) {
+    private ProcessingHandle handleCameraData(Intent data) {
         LogUtils.d(TAG, "handleCameraData: " + path);
         if (path == null || path.isEmpty()) {
             throw new RuntimeException("Camera Path cannot be null. Re-initialize with correct path value.");
@@ -144,12 +175,12 @@ public abstract class VideoPickerImpl extends PickerManager {
             } else {
                 uris.add(Uri.fromFile(file).toString());
             }
-            processVideos(uris);
+            return processVideos(uris);
         }
     }
 
     @SuppressLint("NewApi")
-    private void handleGalleryData(Intent intent) {
+    private ProcessingHandle handleGalleryData(Intent intent) {
         List<String> uris = new ArrayList<>();
         if (intent != null) {
             if (intent.getDataString() != null && isClipDataApi() && intent.getClipData() == null) {
@@ -174,18 +205,26 @@ public abstract class VideoPickerImpl extends PickerManager {
                 }
             }
 
-            processVideos(uris);
+            return processVideos(uris);
         }
+        return null;
     }
 
-    private void processVideos(List<String> uris) {
+    private ProcessingHandle processVideos(List<String> uris) {
         VideoProcessorThread thread = new VideoProcessorThread(getContext(), getVideoObjects(uris), cacheLocation);
         thread.setRequestId(requestId);
+        thread.setParallelism(parallelism);
+        thread.setChecksumAlgorithm(checksumAlgorithm);
+        thread.setReuseImports(reuseImports);
+        thread.setReuseRenditions(reuseRenditions);
+        thread.setProcessingCallback(processingCallback);
         thread.setShouldGeneratePreviewImages(generatePreviewImages);
         thread.setShouldGenerateMetadata(generateMetadata);
         thread.setThumbnailsImageQuality(quality);
+        thread.setOutputFormat(outputFormat);
+        thread.setThumbnailSpecs(thumbnailSpecs);
         thread.setVideoPickerCallback(callback);
-        thread.start();
+        return ProcessingEngine.getInstance().submit(thread);
     }
 
     private List<ChosenVideo> getVideoObjects(List<String> uris) {
@@ -20,17 +20,14 @@ public final class AudioProcessorThread extends FileProcessorThread {
     }
 
     @Override
-    public void run() {
-        super.run();
-        postProcessAudios();
-        onDone();
+    protected void onFileImported(ChosenFile file) {
+        postProcessAudio((ChosenAudio) file);
+        onFileFinished(file);
     }
 
-    private void postProcessAudios() {
-        for (ChosenFile file : files) {
-            ChosenAudio audio = (ChosenAudio) file;
-            postProcessAudio(audio);
-        }
+    @Override
+    protected void onFilesProcessed() {
+        onDone();
     }
 
     private void postProcessAudio(ChosenAudio audio) {
@@ -7,7 +7,6 @@ import android.content.Context;
 import android.database.Cursor;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
-import android.graphics.Matrix;
 import android.media.ExifInterface;
 import android.net.Uri;
 import android.os.Build;
@@ -15,36 +14,64 @@ import android.os.Environment;
 import android.os.ParcelFileDescriptor;
 import android.provider.DocumentsContract;
 import android.provider.MediaStore;
+import android.provider.OpenableColumns;
 import android.text.TextUtils;
 import android.webkit.MimeTypeMap;
 
 import com.kbeanie.multipicker.api.CacheLocation;
+import com.kbeanie.multipicker.api.ChecksumAlgorithm;
+import com.kbeanie.multipicker.api.ImageFormat;
+import com.kbeanie.multipicker.api.ProcessingHandle;
+import com.kbeanie.multipicker.api.ThumbnailSpec;
 import com.kbeanie.multipicker.api.callbacks.FilePickerCallback;
+import com.kbeanie.multipicker.api.callbacks.ProcessingCallback;
 import com.kbeanie.multipicker.api.entity.ChosenFile;
 import com.kbeanie.multipicker.api.entity.ChosenImage;
 import com.kbeanie.multipicker.api.exceptions.PickerException;
+import com.kbeanie.multipicker.utils.BitmapPool;
 import com.kbeanie.multipicker.utils.BitmapUtils;
+import com.kbeanie.multipicker.utils.CopyInspector;
+import com.kbeanie.multipicker.utils.EmbeddedThumbnail;
+import com.kbeanie.multipicker.utils.FileNameIndex;
+import com.kbeanie.multipicker.utils.FileSizeSearch;
 import com.kbeanie.multipicker.utils.FileUtils;
+import com.kbeanie.multipicker.utils.ImageMetadata;
 import com.kbeanie.multipicker.utils.LogUtils;
 import com.kbeanie.multipicker.utils.MimeUtils;
+import com.kbeanie.multipicker.utils.TiledDecoder;
 
 import java.io.BufferedInputStream;
-import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileDescriptor;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.lang.ref.SoftReference;
 import java.net.HttpURLConnection;
 import java.net.URL;
 import java.net.URLConnection;
 import java.net.URLDecoder;
 import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Calendar;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import storage.CacheManager;
+import storage.CleanupJournal;
+import storage.ImportIndex;
+import storage.RenditionCache;
 
 import static com.kbeanie.multipicker.utils.StreamHelper.close;
 import static com.kbeanie.multipicker.utils.StreamHelper.flush;
@@ -53,35 +80,633 @@ import static com.kbeanie.multipicker.utils.StreamHelper.verifyStream;
 /**
  * Created by kbibek on 2/20/16.
  */
-public class FileProcessorThread extends Thread {
+public class FileProcessorThread implements Runnable, ProcessingHandle {
     protected final static int THUMBNAIL_BIG = 1;
     protected final static int THUMBNAIL_SMALL = 2;
     private final static String TAG = FileProcessorThread.class.getSimpleName();
+    private final static String[] STAGING_DIRECTORIES = {"pictures", "movies"};
     private final int cacheLocation;
     protected final Context context;
     protected final List<? extends ChosenFile> files;
     private FilePickerCallback callback;
+    private ProcessingCallback processingCallback;
 
     private int requestId;
+    private int parallelism = 1;
+    private int checksumAlgorithm = ChecksumAlgorithm.NONE;
+    private int outputFormat = ImageFormat.JPEG;
+    private ImportIndex importIndex;
+    // Import index keys of the files being processed, known before they are imported
+    private final Map<ChosenFile, String> importKeys = new IdentityHashMap<>();
+    private RenditionCache renditionCache;
+    // Renditions of earlier batches given back by the cache, they are not outputs of this batch
+    private final Set<String> reusedRenditions = Collections.synchronizedSet(new HashSet<String>());
+    // Renditions in the cache are shared with other picks, they are never modified
+    private final Set<String> sharedRenditions = Collections.synchronizedSet(new HashSet<String>());
+    // Content identities of the files whose checksum was computed while they were copied, by path
+    private final Map<String, String> contentIdentities = Collections.synchronizedMap(new HashMap<String, String>());
+    private final CacheManager cacheManager;
+    // Files this batch writes or gives back, kept from cache eviction until the batch ends
+    private final Set<String> usedPaths = Collections.synchronizedSet(new HashSet<String>());
+    // Outputs of the batch, so that those which are not kept are deleted even after a crash
+    private CleanupJournal journal;
+    // Files of the batch are recorded from then on, they are never evicted by its own trim
+    private long startTime;
+
+    private Executor postProcessExecutor;
+    private AtomicInteger pendingFiles;
+
+    private volatile boolean cancelled;
+    // Files written for each chosen file, deleted if the batch is cancelled before it is finished
+    private final Map<ChosenFile, List<String>> outputs = new IdentityHashMap<>();
+    // Camera captures moved out of the staging folders, by output path. They are moved back instead.
+    private final Map<String, String> movedFrom = Collections.synchronizedMap(new HashMap<String, String>());
+    // Bitmaps decoded for this batch are reused by the next files instead of being left to the GC
+    private final BitmapPool bitmapPool = new BitmapPool();
+    private final Set<BitmapFactory.Options> activeDecodes = Collections.synchronizedSet(new HashSet<BitmapFactory.Options>());
 
     public FileProcessorThread(Context context, List<? extends ChosenFile> files, int cacheLocation) {
         this.context = context;
         this.files = files;
         this.cacheLocation = cacheLocation;
+        this.cacheManager = CacheManager.getInstance(context);
     }
 
     public void setRequestId(int requestId) {
         this.requestId = requestId;
     }
 
+    /**
+     * Max number of files of this batch which are processed at the same time. Default is 1.
+     * The order of the files in the final callback is always the order in which they were chosen.
+     *
+     * @param parallelism
+     */
+    public void setParallelism(int parallelism) {
+        this.parallelism = Math.max(1, parallelism);
+    }
+
+    public void setChecksumAlgorithm(int checksumAlgorithm) {
+        this.checksumAlgorithm = checksumAlgorithm;
+    }
+
+    /**
+     * Format of the resized images, default thumbnails and video previews. Thumbnails described
+     * by a {@link com.kbeanie.multipicker.api.ThumbnailSpec} have their own format.
+     *
+     * @param outputFormat One of {@link ImageFormat}
+     */
+    public void setOutputFormat(int outputFormat) {
+        this.outputFormat = outputFormat;
+    }
+
+    protected int getOutputFormat() {
+        return outputFormat;
+    }
+
+    /**
+     * Give back the outputs of an earlier import when the same source is chosen again with the same
+     * settings, instead of copying and processing it again. Default is false.
+     *
+     * @param reuseImports
+     */
+    public void setReuseImports(boolean reuseImports) {
+        this.importIndex = reuseImports ? ImportIndex.getInstance(context) : null;
+    }
+
+    /**
+     * Give back the resized images, thumbnails and video previews generated earlier for the same
+     * content with the same settings, instead of generating them again. Default is false.
+     *
+     * @param reuseRenditions
+     */
+    public void setReuseRenditions(boolean reuseRenditions) {
+        this.renditionCache = reuseRenditions ? RenditionCache.getInstance(context) : null;
+    }
+
+    /**
+     * Settings which change the outputs of a file. Files imported with other settings are not reused.
+     * Subclasses add their own.
+     */
+    protected String getImportParameters() {
+        return cacheLocation + "|" + checksumAlgorithm + "|" + outputFormat;
+    }
+
+    @SuppressWarnings("deprecation")
+    @Override
+    public void cancel() {
+        if (cancelled) {
+            return;
+        }
+        LogUtils.d(TAG, "cancel: Cancelling batch of " + files.size() + " files");
+        cancelled = true;
+        synchronized (activeDecodes) {
+            for (BitmapFactory.Options options : activeDecodes) {
+                options.requestCancelDecode();
+            }
+        }
+    }
+
+    @Override
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    protected void checkCancelled() throws PickerException {
+        if (cancelled) {
+            throw new PickerException("Processing cancelled");
+        }
+    }
+
     @Override
     public void run() {
-        processFiles();
+        if (cancelled) {
+            return;
+        }
+        if (files.isEmpty()) {
+            notifyBatchComplete();
+            onFilesProcessed();
+            return;
+        }
+        startTime = System.currentTimeMillis();
+        CleanupJournal.recover(context);
+        try {
+            journal = CleanupJournal.open(context);
+        } catch (IOException e) {
+            LogUtils.e(TAG, "run: Couldn't open the cleanup journal: " + e.getMessage());
+        }
+        Executor importExecutor = getEngine().newIoExecutor(parallelism);
+        postProcessExecutor = getEngine().newCpuExecutor(parallelism);
+        pendingFiles = new AtomicInteger(files.size());
+        for (final ChosenFile file : files) {
+            importExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    processFile(file);
+                }
+            });
+        }
+    }
+
+    private void processFile(ChosenFile file) {
+        boolean reused = false;
+        try {
+            checkCancelled();
+            file.setRequestId(requestId);
+            LogUtils.d(TAG, "processFile: Before: " + file.toString());
+            if (importIndex != null && reuseImport(file)) {
+                use(CacheManager.getPaths(file));
+                reused = true;
+                file.setSuccess(true);
+                LogUtils.d(TAG, "processFile: Already imported: " + file.toString());
+            } else {
+                importFile(file);
+                checkCancelled();
+                postProcess(file);
+                file.setSuccess(true);
+                LogUtils.d(TAG, "processFile: Final Path: " + file.toString());
+            }
+        } catch (PickerException e) {
+            e.printStackTrace();
+            file.setSuccess(false);
+        } catch (RuntimeException e) {
+            // A bad file mustn't keep the batch from finishing, or take the thread down
+            e.printStackTrace();
+            file.setSuccess(false);
+        }
+        if (reused) {
+            onFileFinished(file);
+        } else {
+            onFileImported(file);
+        }
+    }
+
+    /**
+     * Called on the I/O lane once a file has been imported. Subclasses with heavier post
+     * processing should hand it over to {@link #getPostProcessExecutor()} and call
+     * {@link #onFileFinished(ChosenFile)} when done.
+     */
+    protected void onFileImported(ChosenFile file) {
+        onFileFinished(file);
+    }
+
+    /**
+     * Must be called exactly once for every file of the batch, when it is completely processed.
+     */
+    protected final void onFileFinished(ChosenFile file) {
+        String importKey;
+        synchronized (importKeys) {
+            importKey = importKeys.remove(file);
+        }
+        if (cancelled) {
+            deleteOutputs(file);
+        } else {
+            if (file.isSuccess()) {
+                releaseOutputs(file);
+            } else {
+                // Partial copies and whatever else was written before it failed
+                deleteOutputs(file);
+            }
+            if (importKey != null && file.isSuccess()) {
+                importIndex.put(importKey, file);
+            }
+            if (file.isSuccess() && isEvictable()) {
+                cacheManager.record(CacheManager.getPaths(file));
+            }
+            notifyFileFinished(file);
+        }
+        int remaining = pendingFiles.decrementAndGet();
+        if (remaining == 0 && !cancelled) {
+            notifyBatchComplete();
+            onFilesProcessed();
+        }
+        if (remaining == 0) {
+            bitmapPool.clear();
+            if (journal != null) {
+                journal.close();
+            }
+            // Delivery is posted to the UI thread, the trim keeps the files of this batch anyway
+            synchronized (usedPaths) {
+                cacheManager.release(usedPaths);
+                usedPaths.clear();
+            }
+            trimCache();
+        }
+    }
+
+    /**
+     * @return true if the file was filled from the import index. Otherwise, its key is kept so that
+     * the outputs are indexed once it is processed.
+     */
+    private boolean reuseImport(ChosenFile file) {
+        long[] fingerprint = getSourceFingerprint(file.getQueryUri());
+        if (fingerprint == null) {
+            return false;
+        }
+        String key = ImportIndex.buildKey(file.getQueryUri(), fingerprint[0], fingerprint[1], getImportParameters());
+        if (importIndex.restore(key, file)) {
+            return true;
+        }
+        synchronized (importKeys) {
+            importKeys.put(file, key);
+        }
+        return false;
+    }
+
+    /**
+     * @return Size and last modified time of the source, or null if they can't be known. Downloads
+     * are never reused, nothing tells if they changed.
+     */
+    private long[] getSourceFingerprint(String uri) {
+        if (uri.startsWith("file://") || uri.startsWith("/")) {
+            File source = new File(uri.startsWith("file://") ? uri.substring(7) : uri);
+            return source.exists() ? new long[]{source.length(), source.lastModified()} : null;
+        }
+        if (!uri.startsWith("content:")) {
+            return null;
+        }
+        Cursor cursor = null;
+        try {
+            cursor = context.getContentResolver().query(Uri.parse(uri), null, null, null, null);
+            if (cursor == null || !cursor.moveToFirst()) {
+                return null;
+            }
+            int sizeIndex = cursor.getColumnIndex(OpenableColumns.SIZE);
+            // Documents have their own column, the media store has its own
+            int modifiedIndex = cursor.getColumnIndex("last_modified");
+            if (modifiedIndex == -1) {
+                modifiedIndex = cursor.getColumnIndex(MediaStore.MediaColumns.DATE_MODIFIED);
+            }
+            if (sizeIndex == -1 || modifiedIndex == -1 || cursor.isNull(sizeIndex) || cursor.isNull(modifiedIndex)) {
+                return null;
+            }
+            return new long[]{cursor.getLong(sizeIndex), cursor.getLong(modifiedIndex)};
+        } catch (Exception e) {
+            // Some providers don't like queries without a projection
+            LogUtils.d(TAG, "getSourceFingerprint: " + e.getMessage());
+            return null;
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+        }
+    }
+
+    /**
+     * Record a file written while processing the chosen file, so that it can be removed if the
+     * batch is cancelled.
+     */
+    protected void trackOutput(ChosenFile file, String path) {
+        if (path == null || reusedRenditions.contains(path)) {
+            return;
+        }
+        synchronized (outputs) {
+            List<String> paths = outputs.get(file);
+            if (paths == null) {
+                paths = new ArrayList<>();
+                outputs.put(file, paths);
+            }
+            paths.add(path);
+        }
+        if (journal != null) {
+            journal.add(path);
+        }
+        use(Collections.singletonList(path));
+    }
+
+    private void use(List<String> paths) {
+        List<String> added = new ArrayList<>();
+        for (String path : paths) {
+            if (usedPaths.add(path)) {
+                added.add(path);
+            }
+        }
+        cacheManager.use(added);
+    }
+
+    // Files saved to the public directories belong to the user
+    private boolean isEvictable() {
+        return cacheLocation == CacheLocation.EXTERNAL_STORAGE_APP_DIR
+                || cacheLocation == CacheLocation.EXTERNAL_CACHE_DIR
+                || cacheLocation == CacheLocation.INTERNAL_APP_DIR;
+    }
+
+    // One step at a time at the back of the I/O lane, so that imports of other batches aren't held up
+    private void trimCache() {
+        final Executor executor = getEngine().newIoExecutor(1);
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (cacheManager.trimStep(startTime)) {
+                    executor.execute(this);
+                }
+            }
+        });
+    }
+
+    /**
+     * Keep the outputs which are part of the processed file, or in the rendition cache. The others,
+     * like the copy made before resizing, are deleted.
+     */
+    private void releaseOutputs(ChosenFile file) {
+        List<String> paths;
+        synchronized (outputs) {
+            paths = outputs.remove(file);
+        }
+        if (paths == null) {
+            return;
+        }
+        List<String> kept = CacheManager.getPaths(file);
+        kept.remove(file.getTempFile());
+        for (String path : paths) {
+            movedFrom.remove(path);
+            if (kept.contains(path) || sharedRenditions.contains(path)) {
+                if (journal != null) {
+                    journal.keep(path);
+                }
+                continue;
+            }
+            File output = new File(path);
+            if (output.exists() && !output.delete()) {
+                LogUtils.e(TAG, "releaseOutputs: Couldn't delete " + path);
+            } else if (path.equals(file.getTempFile())) {
+                file.setTempFile("");
+            }
+        }
+    }
+
+    private boolean isOutput(ChosenFile file, String path) {
+        synchronized (outputs) {
+            List<String> paths = outputs.get(file);
+            return paths != null && paths.contains(path);
+        }
+    }
+
+    /**
+     * @param rendition  What is generated from the file, ex: "resized"
+     * @param parameters Settings which change the rendition
+     * @return Key of the rendition in the cache, or null if renditions aren't reused or the file can't be read
+     */
+    protected String getRenditionKey(String path, String rendition, String parameters) {
+        if (renditionCache == null) {
+            return null;
+        }
+        try {
+            File file = new File(path);
+            String identity = contentIdentities.get(file.getAbsolutePath());
+            if (identity == null) {
+                identity = FileUtils.getContentIdentity(file);
+                contentIdentities.put(file.getAbsolutePath(), identity);
+            }
+            return RenditionCache.buildKey(identity, rendition, parameters + "|" + outputFormat);
+        } catch (IOException e) {
+            LogUtils.d(TAG, "getRenditionKey: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * @return The rendition generated earlier, or null. Don't modify its file, other files use it too.
+     */
+    protected RenditionCache.Rendition getRendition(String key) {
+        if (key == null) {
+            return null;
+        }
+        RenditionCache.Rendition rendition = renditionCache.get(key);
+        if (rendition != null) {
+            reusedRenditions.add(rendition.getPath());
+            sharedRenditions.add(rendition.getPath());
+            use(Collections.singletonList(rendition.getPath()));
+        }
+        return rendition;
+    }
+
+    protected void putRendition(String key, RenditionCache.Rendition rendition) {
+        if (key != null) {
+            sharedRenditions.add(rendition.getPath());
+            renditionCache.put(key, rendition);
+        }
+    }
+
+    private void deleteOutputs(ChosenFile file) {
+        List<String> paths;
+        synchronized (outputs) {
+            paths = outputs.remove(file);
+        }
+        if (paths == null) {
+            return;
+        }
+        for (String path : paths) {
+            String from = movedFrom.remove(path);
+            if (from != null) {
+                // The only copy of the capture, it goes back where the camera left it
+                CleanupJournal.undoMove(from, path);
+                if (path.equals(file.getOriginalPath())) {
+                    file.setOriginalPath(from);
+                }
+                continue;
+            }
+            File output = new File(path);
+            if (output.exists() && !output.delete()) {
+                LogUtils.e(TAG, "deleteOutputs: Couldn't delete " + path);
+            }
+        }
+    }
+
+    /**
+     * Decodes a bitmap in a way that {@link #cancel()} can abort it.
+     */
+    protected Bitmap decodeStream(InputStream stream, BitmapFactory.Options options) {
+        activeDecodes.add(options);
+        try {
+            if (cancelled) {
+                return null;
+            }
+            return BitmapFactory.decodeStream(stream, null, options);
+        } finally {
+            activeDecodes.remove(options);
+        }
+    }
+
+    /**
+     * Decodes the image into a bitmap of this batch's pool, when one is large enough. Give the bitmap
+     * back with {@link #releaseBitmap(Bitmap)} once done with it.
+     *
+     * @param width  Width of the image, from a bounds only decode
+     * @param height Height of the image, from a bounds only decode
+     */
+    protected Bitmap decodeFile(String path, BitmapFactory.Options options, int width, int height) throws IOException {
+        int sampleSize = Math.max(1, options.inSampleSize);
+        Bitmap reusable = bitmapPool.get((width + sampleSize - 1) / sampleSize,
+                (height + sampleSize - 1) / sampleSize, options.inPreferredConfig);
+        options.inJustDecodeBounds = false;
+        options.inMutable = true;
+        options.inBitmap = reusable;
+        Bitmap bitmap;
+        try {
+            bitmap = decodeFile(path, options);
+        } catch (IllegalArgumentException e) {
+            // The decoder didn't accept the pooled bitmap, the size estimate can be off for some formats
+            if (reusable == null) {
+                throw e;
+            }
+            options.inBitmap = null;
+            bitmapPool.put(reusable);
+            reusable = null;
+            bitmap = decodeFile(path, options);
+        }
+        if (bitmap == null && reusable != null) {
+            bitmapPool.put(reusable);
+        }
+        return bitmap;
+    }
+
+    /**
+     * Same as {@link #decodeFile(String, BitmapFactory.Options, int, int)}, unless the sampled bitmap
+     * would be too large to hold in memory. Such images are decoded in bands, straight to the
+     * target size, with {@link TiledDecoder}.
+     *
+     * @return Bitmap either at the sample size of the options, or exactly the target size
+     */
+    protected Bitmap decodeFile(String path, BitmapFactory.Options options, int width, int height,
+                                int targetWidth, int targetHeight) throws IOException {
+        if (TiledDecoder.isTooLarge(width, height, Math.max(1, options.inSampleSize))) {
+            Bitmap bitmap = TiledDecoder.decode(path, targetWidth, targetHeight, this, bitmapPool);
+            if (bitmap != null || cancelled) {
+                return bitmap;
+            }
+        }
+        return decodeFile(path, options, width, height);
+    }
+
+    private Bitmap decodeFile(String path, BitmapFactory.Options options) throws IOException {
+        BufferedInputStream stream = new BufferedInputStream(new FileInputStream(path));
+        try {
+            return decodeStream(stream, options);
+        } finally {
+            stream.close();
+        }
+    }
+
+    /**
+     * Scaled and rotated copy of the bitmap, drawn into a bitmap of this batch's pool when possible
+     */
+    protected Bitmap transformBitmap(Bitmap bitmap, int width, int height, int rotate) {
+        return bitmapPool.transform(bitmap, width, height, rotate);
+    }
+
+    protected void releaseBitmap(Bitmap bitmap) {
+        bitmapPool.put(bitmap);
+    }
+
+    private void notifyFileFinished(final ChosenFile file) {
+        if (processingCallback == null) {
+            return;
+        }
+        final int position = positionOf(file);
+        final boolean success = file.isSuccess();
+        try {
+            getActivityFromContext().runOnUiThread(new Runnable() {
+                @Override
+                public void run() {
+                    if (success) {
+                        processingCallback.onItemReady(file, position);
+                    } else {
+                        processingCallback.onItemFailed(file, position);
+                    }
+                }
+            });
+        } catch (NullPointerException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void notifyBatchComplete() {
+        if (processingCallback == null) {
+            return;
+        }
+        try {
+            getActivityFromContext().runOnUiThread(new Runnable() {
+                @Override
+                public void run() {
+                    processingCallback.onBatchComplete(files);
+                }
+            });
+        } catch (NullPointerException e) {
+            e.printStackTrace();
+        }
+    }
+
+    // ChosenFile#equals compares contents, two picks of the same file must still get their own position
+    private int positionOf(ChosenFile file) {
+        for (int i = 0; i < files.size(); i++) {
+            if (files.get(i) == file) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Called once every file of the batch is finished, on the thread that finished the last one.
+     */
+    protected void onFilesProcessed() {
         if (callback != null) {
             onDone();
         }
     }
 
+    protected ProcessingEngine getEngine() {
+        return ProcessingEngine.getInstance();
+    }
+
+    /**
+     * Executor on the CPU lane, limited to the parallelism of this batch
+     */
+    protected Executor getPostProcessExecutor() {
+        return postProcessExecutor;
+    }
+
     private void onDone() {
         try {
             if (callback != null) {
@@ -97,22 +722,6 @@ public class FileProcessorThread extends Thread {
         }
     }
 
-    protected void processFiles() {
-        for (ChosenFile file : files) {
-            try {
-                file.setRequestId(requestId);
-                LogUtils.d(TAG, "processFile: Before: " + file.toString());
-                processFile(file);
-                postProcess(file);
-                file.setSuccess(true);
-                LogUtils.d(TAG, "processFile: Final Path: " + file.toString());
-            } catch (PickerException e) {
-                e.printStackTrace();
-                file.setSuccess(false);
-            }
-        }
-    }
-
     protected void postProcessFiles() {
         for (ChosenFile file : files) {
             try {
@@ -125,9 +734,20 @@ public class FileProcessorThread extends Thread {
 
     private void postProcess(ChosenFile file) throws PickerException {
         file.setCreatedAt(Calendar.getInstance().getTime());
-        File f = new File(file.getOriginalPath());
-        file.setSize(f.length());
         copyFileToFolder(file);
+        // Size and checksum are known when the file was copied. Files already in place or moved are looked at here.
+        File f = new File(file.getOriginalPath());
+        if (checksumAlgorithm != ChecksumAlgorithm.NONE && file.getChecksum() == null) {
+            CopyInspector inspector = new CopyInspector(checksumAlgorithm);
+            try {
+                FileUtils.inspect(f, inspector, this);
+            } catch (IOException e) {
+                throw new PickerException(e);
+            }
+            setInspection(file, inspector, f.getAbsolutePath());
+        } else if (file.getSize() == 0) {
+            file.setSize(f.length());
+        }
     }
 
     private void copyFileToFolder(ChosenFile file) throws PickerException {
@@ -135,11 +755,7 @@ public class FileProcessorThread extends Thread {
         LogUtils.d(TAG, "copyFileToFolder: extension: " + file.getExtension());
         LogUtils.d(TAG, "copyFileToFolder: mimeType: " + file.getMimeType());
         LogUtils.d(TAG, "copyFileToFolder: type: " + file.getType());
-        if (file.getType().equals("image")) {
-            file.setDirectoryType(Environment.DIRECTORY_PICTURES);
-        } else if (file.getType().equals("video")) {
-            file.setDirectoryType(Environment.DIRECTORY_MOVIES);
-        }
+        setDirectoryForType(file);
         String outputPath = getTargetLocationToCopy(file);
         LogUtils.d(TAG, "copyFileToFolder: Out Path: " + outputPath);
         // Check if file is already in the required destination
@@ -148,8 +764,21 @@ public class FileProcessorThread extends Thread {
         }
         try {
             File inputFile = new File(file.getOriginalPath());
-            File copyTo = new File(outputPath);
-            FileUtils.copyFile(inputFile, copyTo);
+            File copyTo = new File(generateFileName(file));
+            if (isStagedByPicker(inputFile)) {
+                // Nobody else knows about this file, no need to keep it around
+                LogUtils.d(TAG, "copyFileToFolder: Moving staged file: " + inputFile.getAbsolutePath());
+                // Recorded first, so that a cancel, a failure or a crash moves it back
+                movedFrom.put(copyTo.getAbsolutePath(), inputFile.getAbsolutePath());
+                if (journal != null) {
+                    journal.move(inputFile.getAbsolutePath(), copyTo.getAbsolutePath());
+                }
+                FileUtils.moveFile(inputFile, copyTo, this);
+            } else {
+                CopyInspector inspector = newInspector();
+                FileUtils.copyFile(inputFile, copyTo, this, inspector);
+                setInspection(file, inspector, copyTo.getAbsolutePath());
+            }
             file.setOriginalPath(copyTo.getAbsolutePath());
         } catch (IOException e) {
             e.printStackTrace();
@@ -157,7 +786,31 @@ public class FileProcessorThread extends Thread {
         }
     }
 
-    private void processFile(ChosenFile file) throws PickerException {
+    // Files are written to the folder of their type right away, so that they don't have to be copied again
+    private void setDirectoryForType(ChosenFile file) {
+        if (file.getType().equals("image")) {
+            file.setDirectoryType(Environment.DIRECTORY_PICTURES);
+        } else if (file.getType().equals("video")) {
+            file.setDirectoryType(Environment.DIRECTORY_MOVIES);
+        }
+    }
+
+    // Camera captures are first written to these folders of the app's files dir (PickerManager#getNewFileLocation)
+    private boolean isStagedByPicker(File file) {
+        File parent = file.getParentFile();
+        if (parent == null) {
+            return false;
+        }
+        for (String directory : STAGING_DIRECTORIES) {
+            if (parent.equals(new File(context.getFilesDir(), directory))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void importFile(ChosenFile file) throws PickerException {
+        setDirectoryForType(file);
         String uri = file.getQueryUri();
         LogUtils.d(TAG, "processFile: uri"+ uri);
         if (uri.startsWith("file://") || uri.startsWith("/")) {
@@ -166,6 +819,7 @@ public class FileProcessorThread extends Thread {
             file.setMimeType(guessMimeTypeFromUrl(file.getOriginalPath(), file.getType()));
         } else if (uri.startsWith("http")) {
             file = downloadAndSaveFile(file);
+            checkCancelled();
         } else if (uri.startsWith("content:")) {
             file = getAbsolutePathIfAvailable(file);
         }
@@ -200,26 +854,17 @@ public class FileProcessorThread extends Thread {
     }
 
     protected ChosenFile getFromContentProviderAlternate(ChosenFile file) throws PickerException {
-        BufferedOutputStream outStream = null;
-        BufferedInputStream bStream = null;
+        InputStream inputStream = null;
 
         try {
-            InputStream inputStream = context.getContentResolver()
+            inputStream = context.getContentResolver()
                     .openInputStream(Uri.parse(file.getOriginalPath()));
 
-            bStream = new BufferedInputStream(inputStream);
-            String mimeType = URLConnection.guessContentTypeFromStream(inputStream);
-
-            verifyStream(file.getOriginalPath(), bStream);
+            verifyStream(file.getOriginalPath(), inputStream);
 
             String localFilePath = generateFileName(file);
 
-            outStream = new BufferedOutputStream(new FileOutputStream(localFilePath));
-            byte[] buf = new byte[2048];
-            int len;
-            while ((len = bStream.read(buf)) > 0) {
-                outStream.write(buf, 0, len);
-            }
+            String mimeType = copyToLocalFile(file, inputStream, localFilePath);
             file.setOriginalPath(localFilePath);
             if (file.getMimeType() != null && file.getMimeType().contains("/*")) {
                 if (mimeType != null && !mimeType.isEmpty()) {
@@ -231,9 +876,7 @@ public class FileProcessorThread extends Thread {
         } catch (IOException e) {
             throw new PickerException(e);
         } finally {
-            flush(outStream);
-            close(bStream);
-            close(outStream);
+            close(inputStream);
         }
 
         return file;
@@ -241,8 +884,7 @@ public class FileProcessorThread extends Thread {
 
     protected ChosenFile getFromContentProvider(ChosenFile file) throws PickerException {
 
-        BufferedInputStream inputStream = null;
-        BufferedOutputStream outStream = null;
+        FileInputStream inputStream = null;
         ParcelFileDescriptor parcelFileDescriptor = null;
         try {
             String localFilePath = generateFileName(file);
@@ -254,18 +896,8 @@ public class FileProcessorThread extends Thread {
             FileDescriptor fileDescriptor = parcelFileDescriptor
                     .getFileDescriptor();
 
-            inputStream = new BufferedInputStream(new FileInputStream(fileDescriptor));
-            String mimeType = URLConnection.guessContentTypeFromStream(inputStream);
-            BufferedInputStream reader = new BufferedInputStream(inputStream);
-
-            outStream = new BufferedOutputStream(
-                    new FileOutputStream(localFilePath));
-            byte[] buf = new byte[2048];
-            int len;
-            while ((len = reader.read(buf)) > 0) {
-                outStream.write(buf, 0, len);
-            }
-            flush(outStream);
+            inputStream = new FileInputStream(fileDescriptor);
+            String mimeType = copyToLocalFile(file, inputStream, localFilePath);
             file.setOriginalPath(localFilePath);
             if (file.getMimeType() != null && file.getMimeType().contains("/*")) {
                 if (mimeType != null && !mimeType.isEmpty()) {
@@ -280,13 +912,54 @@ public class FileProcessorThread extends Thread {
             if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
                 close(parcelFileDescriptor);
             }
-            flush(outStream);
-            close(outStream);
             close(inputStream);
         }
         return file;
     }
 
+    /**
+     * Copies the stream to a local file and returns the mime type guessed from its first bytes. Size
+     * and checksum are taken on the way. Streams backed by a file descriptor are copied channel to
+     * channel, without going through the heap, unless a checksum is needed (renditions are keyed
+     * on one too).
+     */
+    private String copyToLocalFile(ChosenFile file, InputStream inputStream, String localFilePath) throws IOException {
+        CopyInspector inspector = newInspector();
+        FileOutputStream outputStream = new FileOutputStream(localFilePath);
+        try {
+            if (inputStream instanceof FileInputStream) {
+                FileUtils.copyLarge(((FileInputStream) inputStream).getChannel(), outputStream.getChannel(), this, inspector);
+            } else {
+                FileUtils.copyLarge(inputStream, outputStream, this, inspector);
+            }
+        } finally {
+            outputStream.close();
+        }
+        setInspection(file, inspector, localFilePath);
+        return inspector.getMimeType();
+    }
+
+    // The rendition cache keys on a checksum of the whole content, it is taken during the copy too
+    private CopyInspector newInspector() {
+        if (checksumAlgorithm == ChecksumAlgorithm.NONE && renditionCache != null) {
+            return new CopyInspector(ChecksumAlgorithm.CRC32);
+        }
+        return new CopyInspector(checksumAlgorithm);
+    }
+
+    private void setInspection(ChosenFile file, CopyInspector inspector, String path) {
+        file.setSize(inspector.getSize());
+        if (inspector.getChecksum() != null) {
+            contentIdentities.put(new File(path).getAbsolutePath(), FileUtils.getContentIdentity(inspector.getSize(),
+                    inspector.getChecksumAlgorithm(), inspector.getChecksum()));
+        }
+        // Only the checksum that was asked for
+        if (inspector.getChecksumAlgorithm() == checksumAlgorithm) {
+            file.setChecksum(inspector.getChecksum());
+            file.setChecksumAlgorithm(inspector.getChecksumAlgorithm());
+        }
+    }
+
     // Try to get a local copy if available
 
     private ChosenFile getAbsolutePathIfAvailable(ChosenFile file) {
@@ -448,12 +1121,12 @@ public class FileProcessorThread extends Thread {
         try {
             URL u = new URL(file.getQueryUri());
             HttpURLConnection urlConnection = (HttpURLConnection) u.openConnection();
-            InputStream stream = new BufferedInputStream(urlConnection.getInputStream());
-            BufferedInputStream bStream = new BufferedInputStream(stream);
+            // Buffered only so that the type can be guessed from the first bytes, copyLarge reads in large blocks
+            BufferedInputStream bStream = new BufferedInputStream(urlConnection.getInputStream());
 
             String mimeType = guessMimeTypeFromUrl(file.getQueryUri(), file.getType());
             if (mimeType == null) {
-                mimeType = URLConnection.guessContentTypeFromStream(stream);
+                mimeType = URLConnection.guessContentTypeFromStream(bStream);
             }
 
             if (mimeType == null && file.getQueryUri().contains(".")) {
@@ -473,14 +1146,15 @@ public class FileProcessorThread extends Thread {
 
             FileOutputStream fileOutputStream = new FileOutputStream(localFile);
 
-            byte[] buffer = new byte[2048];
-            int len;
-            while ((len = bStream.read(buffer)) > 0) {
-                fileOutputStream.write(buffer, 0, len);
+            try {
+                CopyInspector inspector = newInspector();
+                FileUtils.copyLarge(bStream, fileOutputStream, this, inspector);
+                setInspection(file, inspector, localFilePath);
+            } finally {
+                fileOutputStream.flush();
+                fileOutputStream.close();
+                bStream.close();
             }
-            fileOutputStream.flush();
-            fileOutputStream.close();
-            bStream.close();
             file.setOriginalPath(localFilePath);
         } catch (Exception e) {
             e.printStackTrace();
@@ -578,33 +1252,26 @@ public class FileProcessorThread extends Thread {
             file.setMimeType(guessMimeTypeFromUrl(file.getOriginalPath(), file.getType()));
         }
 
-        String probableFileName = fileName;
-        File probableFile = new File(getTargetDirectory(file.getDirectoryType()) + File.separator
-                + probableFileName);
-        int counter = 0;
-        while (probableFile.exists()) {
-            counter++;
-            if (fileName.contains(".")) {
-                int indexOfDot = fileName.lastIndexOf(".");
-                probableFileName = fileName.substring(0, indexOfDot - 1) + "-" + counter + "." + fileName.substring(indexOfDot + 1);
-            } else {
-                probableFileName = fileName + "(" + counter + ")";
-            }
-            probableFile = new File(getTargetDirectory(file.getDirectoryType()) + File.separator
-                    + probableFileName);
+        File reserved;
+        try {
+            // Files of a batch may be imported in parallel, so the name is reserved on disk
+            reserved = FileNameIndex.getInstance().reserve(new File(getTargetDirectory(file.getDirectoryType())),
+                    fileName);
+        } catch (IOException e) {
+            throw new PickerException(e);
         }
-        fileName = probableFileName;
 
-        file.setDisplayName(fileName);
+        file.setDisplayName(reserved.getName());
 
-        return getTargetDirectory(file.getDirectoryType()) + File.separator
-                + fileName;
+        String path = reserved.getAbsolutePath();
+        trackOutput(file, path);
+        return path;
     }
 
     protected String generateFileNameForVideoPreviewImage() throws PickerException {
         String fileName = UUID.randomUUID().toString();
         // If File name already contains an extension, we don't need to guess the extension
-        String extension = ".jpg";
+        String extension = "." + BitmapUtils.getExtension(outputFormat);
         if (extension != null && !extension.isEmpty()) {
             fileName += extension;
         }
@@ -621,51 +1288,74 @@ public class FileProcessorThread extends Thread {
         this.callback = callback;
     }
 
+    public void setProcessingCallback(ProcessingCallback processingCallback) {
+        this.processingCallback = processingCallback;
+    }
+
     protected ChosenImage ensureMaxWidthAndHeight(int maxWidth, int maxHeight, int quality, ChosenImage image) {
         try {
-            BitmapFactory.Options options = new BitmapFactory.Options();
-            options.inJustDecodeBounds = true;
-            BufferedInputStream boundsOnlyStream = new BufferedInputStream(new FileInputStream(image.getOriginalPath()));
-            Bitmap bitmap = BitmapFactory.decodeStream(boundsOnlyStream, null, options);
-            if (bitmap != null) {
-                bitmap.recycle();
-            }
-            if (boundsOnlyStream != null) {
-                boundsOnlyStream.close();
-            }
-
-            int imageWidth = options.outWidth;
-            int imageHeight = options.outHeight;
+            ImageMetadata metadata = ImageMetadata.read(image.getOriginalPath());
+            int imageWidth = metadata.getWidth();
+            int imageHeight = metadata.getHeight();
 
             int[] scaledDimension = BitmapUtils.getScaledDimensions(imageWidth, imageHeight, maxWidth, maxHeight);
             if (!(scaledDimension[0] == imageWidth && scaledDimension[1] == imageHeight)) {
-                ExifInterface originalExifInterface = new ExifInterface(image.getOriginalPath());
-                String originalRotation = originalExifInterface.getAttribute(ExifInterface.TAG_ORIENTATION);
-                BufferedInputStream scaledInputStream = new BufferedInputStream(new FileInputStream(image.getOriginalPath()));
-                options.inJustDecodeBounds = false;
-                bitmap = BitmapFactory.decodeStream(scaledInputStream, null, options);
-                scaledInputStream.close();
-                if (bitmap != null) {
+                String renditionKey = getRenditionKey(image.getOriginalPath(), "resized",
+                        maxWidth + "x" + maxHeight + "|" + quality);
+                RenditionCache.Rendition rendition = getRendition(renditionKey);
+                if (rendition != null) {
+                    image.setTempFile(image.getOriginalPath());
+                    image.setOriginalPath(rendition.getPath());
+                    image.setWidth(rendition.getWidth());
+                    image.setHeight(rendition.getHeight());
+                    image.setQuality(rendition.getQuality());
+                    setOutputType(image);
+                    return image;
+                }
+                String originalRotation = Integer.toString(metadata.getOrientation());
+                BitmapFactory.Options options = new BitmapFactory.Options();
+                // Let the decoder drop most of the pixels, the decoded bitmap is less than twice the target on each side.
+                // Only the last step to the exact size is done on a bitmap.
+                options.inSampleSize = BitmapUtils.getSampleSize(imageWidth, imageHeight,
+                        scaledDimension[0], scaledDimension[1]);
+                Bitmap bitmap = decodeFile(image.getOriginalPath(), options, imageWidth, imageHeight,
+                        scaledDimension[0], scaledDimension[1]);
+                if (bitmap != null && !cancelled) {
                     File original = new File(image.getOriginalPath());
                     image.setTempFile(original.getAbsolutePath());
-                    File file = new File(
-                            (original.getParent() + File.separator + original.getName()
-                                    .replace(".", "-resized.")));
+                    File file = getOutputFile(original, "-resized");
+                    trackOutput(image, file.getAbsolutePath());
+
+                    // Only JPEG files keep the EXIF orientation, the others are saved upright
+                    boolean keepsOrientation = outputFormat == ImageFormat.JPEG;
+                    int rotate = keepsOrientation ? 0 : metadata.getRotation();
+                    Bitmap scaled = bitmap;
+                    if (bitmap.getWidth() != scaledDimension[0] || bitmap.getHeight() != scaledDimension[1] || rotate != 0) {
+                        scaled = transformBitmap(bitmap, scaledDimension[0], scaledDimension[1], rotate);
+                        releaseBitmap(bitmap);
+                    }
+                    int width = scaled.getWidth();
+                    int height = scaled.getHeight();
                     FileOutputStream stream = new FileOutputStream(file);
-
-                    Matrix matrix = new Matrix();
-                    matrix.postScale((float) scaledDimension[0] / imageWidth, (float) scaledDimension[1] / imageHeight);
-
-                    bitmap = Bitmap.createBitmap(bitmap, 0, 0, bitmap.getWidth(),
-                            bitmap.getHeight(), matrix, false);
-                    bitmap.compress(Bitmap.CompressFormat.JPEG, quality, stream);
+                    try {
+                        scaled.compress(BitmapUtils.getCompressFormat(outputFormat), quality, stream);
+                    } finally {
+                        stream.close();
+                        releaseBitmap(scaled);
+                    }
                     image.setOriginalPath(file.getAbsolutePath());
-                    ExifInterface resizedExifInterface = new ExifInterface(file.getAbsolutePath());
-                    resizedExifInterface.setAttribute(ExifInterface.TAG_ORIENTATION, originalRotation);
-                    resizedExifInterface.saveAttributes();
-                    image.setWidth(scaledDimension[0]);
-                    image.setHeight(scaledDimension[1]);
-                    stream.close();
+                    if (keepsOrientation) {
+                        ExifInterface resizedExifInterface = new ExifInterface(file.getAbsolutePath());
+                        resizedExifInterface.setAttribute(ExifInterface.TAG_ORIENTATION, originalRotation);
+                        resizedExifInterface.saveAttributes();
+                    }
+                    image.setWidth(width);
+                    image.setHeight(height);
+                    image.setQuality(quality);
+                    setOutputType(image);
+                    putRendition(renditionKey, new RenditionCache.Rendition(file.getAbsolutePath(), width, height, quality));
+                } else {
+                    releaseBitmap(bitmap);
                 }
             }
         } catch (Exception e) {
@@ -674,146 +1364,344 @@ public class FileProcessorThread extends Thread {
         return image;
     }
 
-    protected String downScaleAndSaveImage(String image, int scale, int quality) throws PickerException {
-
-        FileOutputStream stream = null;
-        BufferedInputStream bstream = null;
-        Bitmap bitmap;
+    /**
+     * Saves the image again if its file is larger than maxBytes. The encodes are done in memory, as
+     * {@link FileSizeSearch} asks for them. If nothing fits, the smallest encoding is kept.
+     */
+    protected ChosenImage ensureMaxFileSize(long maxBytes, int maxQuality, ChosenImage image) throws PickerException {
+        File current = new File(image.getOriginalPath());
+        if (current.length() <= maxBytes) {
+            return image;
+        }
+        Bitmap bitmap = null;
         try {
-            BitmapFactory.Options optionsForGettingDimensions = new BitmapFactory.Options();
-            optionsForGettingDimensions.inJustDecodeBounds = true;
-            BufferedInputStream boundsOnlyStream = new BufferedInputStream(new FileInputStream(image));
-            bitmap = BitmapFactory.decodeStream(boundsOnlyStream, null, optionsForGettingDimensions);
-            if (bitmap != null) {
-                bitmap.recycle();
+            ImageMetadata metadata = ImageMetadata.read(image.getOriginalPath());
+            BitmapFactory.Options options = new BitmapFactory.Options();
+            // Images too large to decode at once would never fit anyway
+            options.inSampleSize = 1;
+            while (TiledDecoder.isTooLarge(metadata.getWidth(), metadata.getHeight(), options.inSampleSize)) {
+                options.inSampleSize *= 2;
             }
-            if (boundsOnlyStream != null) {
-                boundsOnlyStream.close();
+            bitmap = decodeFile(image.getOriginalPath(), options, metadata.getWidth(), metadata.getHeight());
+            if (bitmap == null) {
+                return image;
             }
-            int w, l;
-            w = optionsForGettingDimensions.outWidth;
-            l = optionsForGettingDimensions.outHeight;
-
-            ExifInterface exif = new ExifInterface(image);
-
-            int orientation = exif.getAttributeInt(
-                    ExifInterface.TAG_ORIENTATION,
-                    ExifInterface.ORIENTATION_NORMAL);
-            int rotate = 0;
-            switch (orientation) {
-                case ExifInterface.ORIENTATION_ROTATE_270:
-                    rotate = -90;
-                    break;
-                case ExifInterface.ORIENTATION_ROTATE_180:
-                    rotate = 180;
-                    break;
-                case ExifInterface.ORIENTATION_ROTATE_90:
-                    rotate = 90;
-                    break;
+            // Only JPEG files keep the EXIF orientation, the others are saved upright
+            boolean keepsOrientation = outputFormat == ImageFormat.JPEG;
+            if (!keepsOrientation && metadata.getRotation() != 0) {
+                Bitmap upright = transformBitmap(bitmap, bitmap.getWidth(), bitmap.getHeight(), metadata.getRotation());
+                releaseBitmap(bitmap);
+                bitmap = upright;
             }
+            FileSizeSearch search = new FileSizeSearch(maxBytes, maxQuality, BitmapUtils.isLossless(outputFormat));
+            Bitmap.CompressFormat format = BitmapUtils.getCompressFormat(outputFormat);
+
+            ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+            byte[] best = null;
+            int bestWidth = 0;
+            int bestHeight = 0;
+            while (search.nextDimension()) {
+                checkCancelled();
+                Bitmap scaled = bitmap;
+                float scale = search.getScale();
+                if (scale < 1) {
+                    scaled = transformBitmap(bitmap, Math.max(1, Math.round(bitmap.getWidth() * scale)),
+                            Math.max(1, Math.round(bitmap.getHeight() * scale)), 0);
+                }
+                while (search.nextQuality()) {
+                    encoded.reset();
+                    scaled.compress(format, search.getQuality(), encoded);
+                    if (search.report(encoded.size())) {
+                        best = encoded.toByteArray();
+                        bestWidth = scaled.getWidth();
+                        bestHeight = scaled.getHeight();
+                    }
+                }
+                if (scaled != bitmap) {
+                    releaseBitmap(scaled);
+                }
+            }
+            int bestQuality = search.getBestQuality();
+            LogUtils.d(TAG, "ensureMaxFileSize: " + current.length() + " -> " + best.length + " bytes, quality: "
+                    + bestQuality + ", " + bestWidth + "x" + bestHeight);
+
+            File file = current;
+            if (!isOutput(image, current.getAbsolutePath()) || sharedRenditions.contains(current.getAbsolutePath())
+                    || !hasOutputExtension(current)) {
+                // The imported file, a rendition shared with other picks, or a file of another format:
+                // the resized one is a new file
+                file = getOutputFile(current, "-resized");
+                if (image.getTempFile() == null || image.getTempFile().isEmpty()) {
+                    image.setTempFile(current.getAbsolutePath());
+                }
+                trackOutput(image, file.getAbsolutePath());
+            }
+            // Its content changes
+            contentIdentities.remove(file.getAbsolutePath());
+            FileOutputStream stream = new FileOutputStream(file);
+            try {
+                stream.write(best);
+            } finally {
+                stream.close();
+            }
+            image.setOriginalPath(file.getAbsolutePath());
+            if (keepsOrientation) {
+                ExifInterface exif = new ExifInterface(file.getAbsolutePath());
+                exif.setAttribute(ExifInterface.TAG_ORIENTATION, Integer.toString(metadata.getOrientation()));
+                exif.saveAttributes();
+            }
+            image.setWidth(bestWidth);
+            image.setHeight(bestHeight);
+            image.setQuality(bestQuality);
+            image.setSize(file.length());
+            setOutputType(image);
+        } catch (IOException e) {
+            throw new PickerException(e);
+        } finally {
+            releaseBitmap(bitmap);
+        }
+        return image;
+    }
+
+    protected String downScaleAndSaveImage(ChosenFile file, String image, int scale, int quality) throws PickerException {
+        return downScaleAndSaveImages(file, image, new int[]{scale}, quality)[0];
+    }
+
+    /**
+     * Saves a thumbnail of the image for each of the scales. The image is read and decoded only once,
+     * for the largest thumbnail, and the smaller ones are scaled down from that bitmap.
+     *
+     * @param file The chosen file the thumbnails are outputs of
+     * @return Paths to the thumbnails, in the order of the scales. An entry is null if the image couldn't be decoded.
+     */
+    protected String[] downScaleAndSaveImages(ChosenFile file, String image, int[] scales, int quality) throws PickerException {
+        String[] paths = new String[scales.length];
+        String[] renditionKeys = new String[scales.length];
+        boolean cached = true;
+        for (int i = 0; i < scales.length; i++) {
+            renditionKeys[i] = getRenditionKey(image, "scale-" + scales[i], Integer.toString(quality));
+            RenditionCache.Rendition rendition = getRendition(renditionKeys[i]);
+            cached &= rendition != null;
+            paths[i] = rendition != null ? rendition.getPath() : null;
+        }
+        if (cached) {
+            return paths;
+        }
+        Bitmap bitmap = null;
+        try {
+            ImageMetadata metadata = ImageMetadata.read(image);
+            int w, l;
+            w = metadata.getWidth();
+            l = metadata.getHeight();
+
+            int rotate = metadata.getRotation();
 
             int what = w > l ? w : l;
 
-            BitmapFactory.Options options = new BitmapFactory.Options();
-            if (what > 3000) {
-                options.inSampleSize = scale * 6;
-            } else if (what > 2000 && what <= 3000) {
-                options.inSampleSize = scale * 5;
-            } else if (what > 1500 && what <= 2000) {
-                options.inSampleSize = scale * 4;
-            } else if (what > 1000 && what <= 1500) {
-                options.inSampleSize = scale * 3;
-            } else if (what > 400 && what <= 1000) {
-                options.inSampleSize = scale * 2;
-            } else {
-                options.inSampleSize = scale;
+            // The largest thumbnail is the one with the smallest sample size
+            int decodeSampleSize = Integer.MAX_VALUE;
+            for (int scale : scales) {
+                decodeSampleSize = Math.min(decodeSampleSize, getThumbnailSampleSize(what, scale));
             }
 
-            options.inJustDecodeBounds = false;
+            BitmapFactory.Options options = new BitmapFactory.Options();
+            options.inSampleSize = decodeSampleSize;
             // TODO: Sometime the decode File Returns null for some images
             // For such cases, thumbnails can't be created.
             // Thumbnails will link to the original file
-            BufferedInputStream scaledInputStream = new BufferedInputStream(new FileInputStream(image));
-            bitmap = BitmapFactory.decodeStream(scaledInputStream, null, options);
+            // Tiled decodes go to the size a sampled decode would have
+            bitmap = decodeFile(image, options, w, l, (w + decodeSampleSize - 1) / decodeSampleSize,
+                    (l + decodeSampleSize - 1) / decodeSampleSize);
 //            verifyBitmap(fileImage, bitmap);
-            scaledInputStream.close();
             if (bitmap != null) {
                 File original = new File(URLDecoder.decode(image, Charset.defaultCharset().name()));
-                File file = new File(
-                        (original.getParent() + File.separator + original.getName()
-                                .replace(".", "-scale-" + scale + ".")));
-                stream = new FileOutputStream(file);
-                if (rotate != 0) {
-                    Matrix matrix = new Matrix();
-                    matrix.setRotate(rotate);
-                    bitmap = Bitmap.createBitmap(bitmap, 0, 0, bitmap.getWidth(),
-                            bitmap.getHeight(), matrix, false);
+                for (int i = 0; i < scales.length; i++) {
+                    checkCancelled();
+                    // Same size as if the image was decoded with the sample size of this scale
+                    float ratio = decodeSampleSize / (float) getThumbnailSampleSize(what, scales[i]);
+                    File output = getOutputFile(original, "-scale-" + scales[i]);
+                    trackOutput(file, output.getAbsolutePath());
+                    saveThumbnail(bitmap, Math.round(bitmap.getWidth() * ratio), Math.round(bitmap.getHeight() * ratio),
+                            rotate, output, BitmapUtils.getCompressFormat(outputFormat), quality);
+                    paths[i] = output.getAbsolutePath();
+                    putRendition(renditionKeys[i], new RenditionCache.Rendition(paths[i]));
                 }
-
-                bitmap.compress(Bitmap.CompressFormat.JPEG, quality, stream);
-                return file.getAbsolutePath();
             }
 
+        } catch (PickerException e) {
+            throw e;
         } catch (Exception e) {
-            throw new PickerException("Error while generating thumbnail: " + scale + " " + image);
+            throw new PickerException("Error while generating thumbnail: " + Arrays.toString(scales) + " " + image);
         } finally {
-            close(bstream);
-            flush(stream);
-            close(stream);
+            releaseBitmap(bitmap);
         }
 
-        return null;
+        return paths;
+    }
+
+    // Same name as the original with a suffix, and the extension of the output format
+    private File getOutputFile(File original, String suffix) throws PickerException {
+        String name = original.getName();
+        if (name.contains(".")) {
+            name = name.substring(0, name.lastIndexOf("."));
+        }
+        return placeOutput(original, name + suffix + "." + BitmapUtils.getExtension(outputFormat));
+    }
+
+    private boolean hasOutputExtension(File file) {
+        return file.getName().toLowerCase(Locale.ENGLISH).endsWith("." + BitmapUtils.getExtension(outputFormat));
     }
 
-    protected String getWidthOfImage(String path) {
-        String width = "";
+    // The file was encoded again, in the output format
+    private void setOutputType(ChosenImage image) {
+        image.setMimeType(BitmapUtils.getMimeType(outputFormat));
+        image.setExtension("." + BitmapUtils.getExtension(outputFormat));
+    }
+
+    // Next to the original, unless the original is a rendition shared with other picks: their outputs
+    // would have the same path, so the output gets a name of its own
+    private File placeOutput(File original, String name) throws PickerException {
+        if (!sharedRenditions.contains(original.getAbsolutePath())) {
+            return new File(original.getParent(), name);
+        }
         try {
-            ExifInterface exif = new ExifInterface(path);
-            width = exif.getAttribute(ExifInterface.TAG_IMAGE_WIDTH);
-            if (width.equals("0")) {
-                SoftReference<Bitmap> bmp = getBitmapImage(path);
-                width = Integer.toString(bmp.get().getWidth());
-                bmp.clear();
-            }
-        } catch (Exception e) {
-            e.printStackTrace();
+            return FileNameIndex.getInstance().reserve(new File(getTargetDirectory(Environment.DIRECTORY_PICTURES)), name);
+        } catch (IOException e) {
+            throw new PickerException(e);
         }
-        return width;
     }
 
-    protected String getHeightOfImage(String path) {
-        String height = "";
+    private int getThumbnailSampleSize(int what, int scale) {
+        if (what > 3000) {
+            return scale * 6;
+        } else if (what > 2000 && what <= 3000) {
+            return scale * 5;
+        } else if (what > 1500 && what <= 2000) {
+            return scale * 4;
+        } else if (what > 1000 && what <= 1500) {
+            return scale * 3;
+        } else if (what > 400 && what <= 1000) {
+            return scale * 2;
+        } else {
+            return scale;
+        }
+    }
+
+    /**
+     * Saves a thumbnail for each of the specs. The image is read and decoded only once, at the
+     * sample size of the largest thumbnail, and all of them are scaled down from that bitmap.
+     *
+     * @param file The chosen file the thumbnails are outputs of
+     * @return Paths to the thumbnails, in the order of the specs. An entry is null if the image couldn't be decoded.
+     */
+    protected String[] saveThumbnails(ChosenFile file, String image, List<ThumbnailSpec> specs) throws PickerException {
+        String[] paths = new String[specs.size()];
+        Bitmap bitmap = null;
         try {
-            ExifInterface exif = new ExifInterface(path);
-            height = exif.getAttribute(ExifInterface.TAG_IMAGE_LENGTH);
-            if (height.equals("0")) {
-                SoftReference<Bitmap> bmp = getBitmapImage(path);
-                height = Integer.toString(bmp.get().getHeight());
-                bmp.clear();
+            ImageMetadata metadata = ImageMetadata.read(image);
+            int rotate = metadata.getRotation();
+            boolean sideways = rotate == 90 || rotate == -90;
+            int uprightWidth = sideways ? metadata.getHeight() : metadata.getWidth();
+            int uprightHeight = sideways ? metadata.getWidth() : metadata.getHeight();
+
+            // Sizes before rotation, as the bitmap is decoded
+            int[][] sizes = new int[specs.size()][];
+            int largestWidth = 1;
+            int largestHeight = 1;
+            for (int i = 0; i < specs.size(); i++) {
+                ThumbnailSpec spec = specs.get(i);
+                int[] size = BitmapUtils.getScaledDimensions(uprightWidth, uprightHeight,
+                        spec.getMaxWidth(), spec.getMaxHeight());
+                sizes[i] = sideways ? new int[]{size[1], size[0]} : size;
+                largestWidth = Math.max(largestWidth, sizes[i][0]);
+                largestHeight = Math.max(largestHeight, sizes[i][1]);
             }
+
+            BitmapFactory.Options options = new BitmapFactory.Options();
+            options.inSampleSize = BitmapUtils.getSampleSize(metadata.getWidth(), metadata.getHeight(), largestWidth, largestHeight);
+            bitmap = decodeFile(image, options, metadata.getWidth(), metadata.getHeight(), largestWidth, largestHeight);
+            if (bitmap != null) {
+                File original = new File(URLDecoder.decode(image, Charset.defaultCharset().name()));
+                String name = original.getName();
+                if (name.contains(".")) {
+                    name = name.substring(0, name.lastIndexOf("."));
+                }
+                for (int i = 0; i < specs.size(); i++) {
+                    checkCancelled();
+                    ThumbnailSpec spec = specs.get(i);
+                    File output = placeOutput(original, name + "-thumbnail-" + (i + 1) + "."
+                            + BitmapUtils.getExtension(spec.getFormat()));
+                    trackOutput(file, output.getAbsolutePath());
+                    saveThumbnail(bitmap, sizes[i][0], sizes[i][1], rotate, output,
+                            BitmapUtils.getCompressFormat(spec.getFormat()), spec.getQuality());
+                    paths[i] = output.getAbsolutePath();
+                }
+            }
+        } catch (PickerException e) {
+            throw e;
         } catch (Exception e) {
-            e.printStackTrace();
+            throw new PickerException("Error while generating thumbnails: " + specs + " " + image);
+        } finally {
+            releaseBitmap(bitmap);
         }
-        return height;
+        return paths;
     }
 
-    protected SoftReference<Bitmap> getBitmapImage(String path) {
-        SoftReference<Bitmap> bitmap;
-        bitmap = new SoftReference<>(BitmapFactory.decodeFile(Uri.fromFile(new File(path)).getPath()));
-        return bitmap;
+    /**
+     * Saves the thumbnail embedded in the EXIF tags of camera pictures as it is, without decoding
+     * or encoding anything.
+     *
+     * @param image The imported image, see {@link EmbeddedThumbnail#getSource(ChosenImage)}
+     * @return Path to the thumbnail, or null if there isn't one, it is smaller than asked, or it
+     * doesn't match the image without being rotated or cropped
+     */
+    protected String saveEmbeddedThumbnail(ChosenFile file, String image, int minWidth, int minHeight) throws PickerException {
+        FileOutputStream stream = null;
+        try {
+            byte[] thumbnail = EmbeddedThumbnail.read(image, minWidth, minHeight);
+            if (thumbnail == null) {
+                return null;
+            }
+            File original = new File(URLDecoder.decode(image, Charset.defaultCharset().name()));
+            String name = original.getName();
+            if (name.contains(".")) {
+                name = name.substring(0, name.lastIndexOf("."));
+            }
+            File output = placeOutput(original, name + "-scale-" + THUMBNAIL_SMALL + ".jpg");
+            trackOutput(file, output.getAbsolutePath());
+            stream = new FileOutputStream(output);
+            stream.write(thumbnail);
+            LogUtils.d(TAG, "saveEmbeddedThumbnail: " + thumbnail.length + " bytes from " + image);
+            return output.getAbsolutePath();
+        } catch (IOException e) {
+            throw new PickerException(e);
+        } finally {
+            close(stream);
+        }
     }
 
-    protected int getOrientation(String image) {
-        int orientation = ExifInterface.ORIENTATION_NORMAL;
+    // Scales and rotates the decoded image in one go
+    private void saveThumbnail(Bitmap bitmap, int width, int height, int rotate, File file,
+                               Bitmap.CompressFormat format, int quality) throws PickerException {
+        Bitmap thumbnail = bitmap;
+        width = Math.max(1, width);
+        height = Math.max(1, height);
+        boolean scale = width != bitmap.getWidth() || height != bitmap.getHeight();
+        if (scale || rotate != 0) {
+            thumbnail = transformBitmap(bitmap, width, height, rotate);
+        }
+        FileOutputStream stream = null;
         try {
-            ExifInterface exif = new ExifInterface(image);
-
-            orientation = exif.getAttributeInt(
-                    ExifInterface.TAG_ORIENTATION,
-                    ExifInterface.ORIENTATION_NORMAL);
-        } catch (Exception e) {
-            e.printStackTrace();
+            stream = new FileOutputStream(file);
+            thumbnail.compress(format, quality, stream);
+        } catch (IOException e) {
+            throw new PickerException(e);
+        } finally {
+            if (thumbnail != bitmap) {
+                releaseBitmap(thumbnail);
+            }
+            flush(stream);
+            close(stream);
         }
-        return orientation;
     }
 }
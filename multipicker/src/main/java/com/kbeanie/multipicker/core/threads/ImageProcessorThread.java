@@ -2,12 +2,18 @@ package com.kbeanie.multipicker.core.threads;
 
 import android.content.Context;
 
+import com.kbeanie.multipicker.api.ThumbnailSpec;
 import com.kbeanie.multipicker.api.callbacks.ImagePickerCallback;
 import com.kbeanie.multipicker.api.entity.ChosenFile;
 import com.kbeanie.multipicker.api.entity.ChosenImage;
 import com.kbeanie.multipicker.api.exceptions.PickerException;
+import com.kbeanie.multipicker.utils.EmbeddedThumbnail;
+import com.kbeanie.multipicker.utils.ImageMetadata;
 import com.kbeanie.multipicker.utils.LogUtils;
 
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 /**
@@ -22,6 +28,10 @@ public final class ImageProcessorThread extends FileProcessorThread {
     private int maxImageWidth = -1;
     private int maxImageHeight = -1;
     private int quality = 100;
+    private long maxFileSize = -1;
+    private List<ThumbnailSpec> thumbnailSpecs;
+    private int embeddedThumbnailWidth = -1;
+    private int embeddedThumbnailHeight = -1;
 
     private ImagePickerCallback callback;
 
@@ -38,9 +48,25 @@ public final class ImageProcessorThread extends FileProcessorThread {
     }
 
     @Override
-    public void run() {
-        super.run();
-        postProcessImages();
+    protected void onFileImported(final ChosenFile file) {
+        getPostProcessExecutor().execute(new Runnable() {
+            @Override
+            public void run() {
+                postProcessImage((ChosenImage) file);
+                onFileFinished(file);
+            }
+        });
+    }
+
+    @Override
+    protected String getImportParameters() {
+        return super.getImportParameters() + "|" + shouldGenerateThumbnails + "|" + shouldGenerateMetadata
+                + "|" + maxImageWidth + "x" + maxImageHeight + "|" + quality + "|" + maxFileSize
+                + "|" + thumbnailSpecs + "|" + embeddedThumbnailWidth + "x" + embeddedThumbnailHeight;
+    }
+
+    @Override
+    protected void onFilesProcessed() {
         onDone();
     }
 
@@ -59,22 +85,30 @@ public final class ImageProcessorThread extends FileProcessorThread {
         }
     }
 
-    private void postProcessImages() {
-        for (ChosenFile file : files) {
-            ChosenImage image = (ChosenImage) file;
-            try {
-                postProcessImage(image);
-                image.setSuccess(true);
-            } catch (PickerException e) {
-                e.printStackTrace();
-                image.setSuccess(false);
-            }
+    private void postProcessImage(ChosenImage image) {
+        if (!image.isSuccess() || isCancelled()) {
+            return;
+        }
+        try {
+            processImage(image);
+        } catch (PickerException e) {
+            e.printStackTrace();
+            image.setSuccess(false);
+        } catch (RuntimeException e) {
+            // A bad file mustn't keep the batch from finishing, or take the thread down
+            e.printStackTrace();
+            image.setSuccess(false);
         }
     }
 
-    private ChosenImage postProcessImage(ChosenImage image) throws PickerException {
+    private ChosenImage processImage(ChosenImage image) throws PickerException {
         if (maxImageWidth != -1 && maxImageHeight != -1) {
             image = ensureMaxWidthAndHeight(maxImageWidth, maxImageHeight, quality, image);
+            checkCancelled();
+        }
+        if (maxFileSize > 0) {
+            image = ensureMaxFileSize(maxFileSize, quality, image);
+            checkCancelled();
         }
         LogUtils.d(TAG, "postProcessImage: " + image.getMimeType());
         if (shouldGenerateMetadata) {
@@ -86,24 +120,47 @@ public final class ImageProcessorThread extends FileProcessorThread {
             }
         }
         if (shouldGenerateThumbnails) {
+            checkCancelled();
             image = generateThumbnails(image);
         }
         LogUtils.d(TAG, "postProcessImage: " + image);
         return image;
     }
 
-    private ChosenImage generateMetadata(ChosenImage image) {
-        image.setWidth(Integer.parseInt(getWidthOfImage(image.getOriginalPath())));
-        image.setHeight(Integer.parseInt(getHeightOfImage(image.getOriginalPath())));
-        image.setOrientation(getOrientation(image.getOriginalPath()));
+    private ChosenImage generateMetadata(ChosenImage image) throws IOException {
+        ImageMetadata metadata = ImageMetadata.read(image.getOriginalPath());
+        image.setWidth(metadata.getWidth());
+        image.setHeight(metadata.getHeight());
+        image.setOrientation(metadata.getOrientation());
         return image;
     }
 
     private ChosenImage generateThumbnails(ChosenImage image) throws PickerException {
-        String thumbnailBig = downScaleAndSaveImage(image.getOriginalPath(), THUMBNAIL_BIG, quality);
-        image.setThumbnailPath(thumbnailBig);
-        String thumbnailSmall = downScaleAndSaveImage(image.getOriginalPath(), THUMBNAIL_SMALL, quality);
-        image.setThumbnailSmallPath(thumbnailSmall);
+        if (thumbnailSpecs != null && !thumbnailSpecs.isEmpty()) {
+            String[] thumbnails = saveThumbnails(image, image.getOriginalPath(), thumbnailSpecs);
+            image.setThumbnails(new ArrayList<>(Arrays.asList(thumbnails)));
+            image.setThumbnailPath(thumbnails[0]);
+            if (thumbnails.length > 1) {
+                image.setThumbnailSmallPath(thumbnails[1]);
+            }
+            return image;
+        }
+        String embeddedThumbnail = null;
+        if (embeddedThumbnailWidth != -1 && embeddedThumbnailHeight != -1) {
+            // The resized or re-encoded file has no thumbnail, the imported one does
+            embeddedThumbnail = saveEmbeddedThumbnail(image, EmbeddedThumbnail.getSource(image),
+                    embeddedThumbnailWidth, embeddedThumbnailHeight);
+        }
+        String[] thumbnails;
+        if (embeddedThumbnail != null) {
+            thumbnails = new String[]{downScaleAndSaveImage(image, image.getOriginalPath(), THUMBNAIL_BIG, quality),
+                    embeddedThumbnail};
+        } else {
+            thumbnails = downScaleAndSaveImages(image, image.getOriginalPath(),
+                    new int[]{THUMBNAIL_BIG, THUMBNAIL_SMALL}, quality);
+        }
+        image.setThumbnailPath(thumbnails[0]);
+        image.setThumbnailSmallPath(thumbnails[1]);
         return image;
     }
 
@@ -120,4 +177,17 @@ public final class ImageProcessorThread extends FileProcessorThread {
         this.quality = quality;
     }
 
+    public void setMaxFileSize(long maxFileSize) {
+        this.maxFileSize = maxFileSize;
+    }
+
+    public void setThumbnailSpecs(List<ThumbnailSpec> thumbnailSpecs) {
+        this.thumbnailSpecs = thumbnailSpecs;
+    }
+
+    public void setEmbeddedThumbnailSize(int minWidth, int minHeight) {
+        this.embeddedThumbnailWidth = minWidth;
+        this.embeddedThumbnailHeight = minHeight;
+    }
+
 }
@@ -0,0 +1,177 @@
+package com.kbeanie.multipicker.core.threads;
+
+import android.os.Process;
+
+import com.kbeanie.multipicker.api.ProcessingHandle;
+import com.kbeanie.multipicker.utils.LogUtils;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Library wide executors on which chosen files are processed.
+ * <p/>
+ * Work is split into two bounded lanes. The I/O lane imports and copies files, the CPU lane
+ * decodes, scales and generates thumbnails. Threads are reused across batches and pickers, so
+ * the total number of processing threads never exceeds the sum of both lane sizes.
+ */
+public final class ProcessingEngine {
+    private final static String TAG = ProcessingEngine.class.getSimpleName();
+
+    private final static int DEFAULT_IO_THREADS = 2;
+    private final static int DEFAULT_CPU_THREADS = Math.max(1, Math.min(Runtime.getRuntime().availableProcessors() - 1, 4));
+    private final static long KEEP_ALIVE_SECONDS = 30;
+
+    private static int ioThreads = DEFAULT_IO_THREADS;
+    private static int cpuThreads = DEFAULT_CPU_THREADS;
+
+    private static ProcessingEngine instance;
+
+    private final ThreadPoolExecutor ioExecutor;
+    private final ThreadPoolExecutor cpuExecutor;
+
+    private ProcessingEngine() {
+        ioExecutor = newExecutor(ioThreads, "io");
+        cpuExecutor = newExecutor(cpuThreads, "cpu");
+    }
+
+    public static synchronized ProcessingEngine getInstance() {
+        if (instance == null) {
+            instance = new ProcessingEngine();
+        }
+        return instance;
+    }
+
+    /**
+     * Set the number of threads for each processing lane. This is the global concurrency cap for
+     * all the pickers in your application. Can be called at any time, running tasks are not affected.
+     *
+     * @param ioThreads  Threads used to import/copy files. Default is 2.
+     * @param cpuThreads Threads used to decode/scale images and generate thumbnails. Default is
+     *                   the number of cores - 1 (max 4).
+     */
+    public static synchronized void setPoolSizes(int ioThreads, int cpuThreads) {
+        if (ioThreads < 1 || cpuThreads < 1) {
+            throw new IllegalArgumentException("Pool sizes must be at least 1");
+        }
+        ProcessingEngine.ioThreads = ioThreads;
+        ProcessingEngine.cpuThreads = cpuThreads;
+        if (instance != null) {
+            resize(instance.ioExecutor, ioThreads);
+            resize(instance.cpuExecutor, cpuThreads);
+        }
+    }
+
+    /**
+     * Queue a batch for processing. The batch starts on the I/O lane.
+     *
+     * @param processor
+     * @return Handle to cancel the batch
+     */
+    public ProcessingHandle submit(FileProcessorThread processor) {
+        LogUtils.d(TAG, "submit: " + processor.getClass().getSimpleName());
+        ioExecutor.execute(processor);
+        return processor;
+    }
+
+    /**
+     * @param parallelism Max number of tasks of a single batch that may run at the same time
+     * @return Executor that runs on the I/O lane
+     */
+    Executor newIoExecutor(int parallelism) {
+        return new LimitedExecutor(ioExecutor, parallelism);
+    }
+
+    /**
+     * @param parallelism Max number of tasks of a single batch that may run at the same time
+     * @return Executor that runs on the CPU lane
+     */
+    Executor newCpuExecutor(int parallelism) {
+        return new LimitedExecutor(cpuExecutor, parallelism);
+    }
+
+    private static ThreadPoolExecutor newExecutor(int threads, String lane) {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, KEEP_ALIVE_SECONDS,
+                TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new LaneThreadFactory(lane));
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    private static void resize(ThreadPoolExecutor executor, int threads) {
+        // Core size can never be larger than the max size, so the order matters
+        if (threads > executor.getMaximumPoolSize()) {
+            executor.setMaximumPoolSize(threads);
+            executor.setCorePoolSize(threads);
+        } else {
+            executor.setCorePoolSize(threads);
+            executor.setMaximumPoolSize(threads);
+        }
+    }
+
+    // Keeps a batch from taking over a whole lane. Tasks beyond the limit wait here, not in the lane
+    private final static class LimitedExecutor implements Executor {
+        private final Executor lane;
+        private final int limit;
+        private final Queue<Runnable> pending = new ArrayDeque<>();
+        private int running;
+
+        LimitedExecutor(Executor lane, int limit) {
+            this.lane = lane;
+            this.limit = Math.max(1, limit);
+        }
+
+        @Override
+        public synchronized void execute(Runnable task) {
+            pending.offer(task);
+            scheduleNext();
+        }
+
+        private synchronized void scheduleNext() {
+            while (running < limit && !pending.isEmpty()) {
+                final Runnable task = pending.poll();
+                running++;
+                lane.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            task.run();
+                        } finally {
+                            onTaskFinished();
+                        }
+                    }
+                });
+            }
+        }
+
+        private synchronized void onTaskFinished() {
+            running--;
+            scheduleNext();
+        }
+    }
+
+    private final static class LaneThreadFactory implements ThreadFactory {
+        private final AtomicInteger count = new AtomicInteger(1);
+        private final String lane;
+
+        LaneThreadFactory(String lane) {
+            this.lane = lane;
+        }
+
+        @Override
+        public Thread newThread(final Runnable runnable) {
+            return new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                    runnable.run();
+                }
+            }, "multipicker-" + lane + "-" + count.getAndIncrement());
+        }
+    }
+}
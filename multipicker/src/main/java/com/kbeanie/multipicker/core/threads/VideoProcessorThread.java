@@ -6,17 +6,23 @@ import android.media.MediaMetadataRetriever;
 import android.media.ThumbnailUtils;
 import android.provider.MediaStore;
 
+import com.kbeanie.multipicker.api.ThumbnailSpec;
 import com.kbeanie.multipicker.api.callbacks.VideoPickerCallback;
 import com.kbeanie.multipicker.api.entity.ChosenFile;
 import com.kbeanie.multipicker.api.entity.ChosenVideo;
 import com.kbeanie.multipicker.api.exceptions.PickerException;
+import com.kbeanie.multipicker.utils.BitmapUtils;
 import com.kbeanie.multipicker.utils.LogUtils;
 
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
+import storage.RenditionCache;
+
 import static com.kbeanie.multipicker.utils.StreamHelper.close;
 import static com.kbeanie.multipicker.utils.StreamHelper.flush;
 
@@ -31,6 +37,7 @@ public final class VideoProcessorThread extends FileProcessorThread {
     private boolean shouldGenerateMetadata;
     private boolean shouldGeneratePreviewImages;
     private int quality = 100;
+    private List<ThumbnailSpec> thumbnailSpecs;
 
     public VideoProcessorThread(Context context, List<? extends ChosenFile> files, int cacheLocation) {
         super(context, files, cacheLocation);
@@ -41,26 +48,44 @@ public final class VideoProcessorThread extends FileProcessorThread {
     }
 
     @Override
-    public void run() {
-        super.run();
-        postProcessVideos();
+    protected void onFileImported(final ChosenFile file) {
+        getPostProcessExecutor().execute(new Runnable() {
+            @Override
+            public void run() {
+                postProcessVideo((ChosenVideo) file);
+                onFileFinished(file);
+            }
+        });
+    }
+
+    @Override
+    protected String getImportParameters() {
+        return super.getImportParameters() + "|" + shouldGenerateMetadata + "|" + shouldGeneratePreviewImages
+                + "|" + quality + "|" + thumbnailSpecs;
+    }
+
+    @Override
+    protected void onFilesProcessed() {
         onDone();
     }
 
-    private void postProcessVideos() {
-        for (ChosenFile file : files) {
-            ChosenVideo video = (ChosenVideo) file;
-            try {
-                postProcessVideo(video);
-                video.setSuccess(true);
-            } catch (PickerException e) {
-                e.printStackTrace();
-                video.setSuccess(false);
-            }
+    private void postProcessVideo(ChosenVideo video) {
+        if (!video.isSuccess() || isCancelled()) {
+            return;
+        }
+        try {
+            processVideo(video);
+        } catch (PickerException e) {
+            e.printStackTrace();
+            video.setSuccess(false);
+        } catch (RuntimeException e) {
+            // A bad file mustn't keep the batch from finishing, or take the thread down
+            e.printStackTrace();
+            video.setSuccess(false);
         }
     }
 
-    private void postProcessVideo(ChosenVideo video) throws PickerException {
+    private void processVideo(ChosenVideo video) throws PickerException {
         if (shouldGenerateMetadata) {
             MediaMetadataRetriever metadataRetriever = new MediaMetadataRetriever();
             try {
@@ -102,12 +127,23 @@ public final class VideoProcessorThread extends FileProcessorThread {
         }
 
         if (shouldGeneratePreviewImages) {
-            String previewPath = createPreviewImage(video.getOriginalPath());
+            checkCancelled();
+            String previewPath = createPreviewImage(video);
             video.setPreviewImage(previewPath);
-            String previewThumbnail = downScaleAndSaveImage(previewPath, THUMBNAIL_BIG, quality);
-            String previewThumbnailSmall = downScaleAndSaveImage(previewPath, THUMBNAIL_SMALL, quality);
-            video.setPreviewThumbnail(previewThumbnail);
-            video.setPreviewThumbnailSmall(previewThumbnailSmall);
+            checkCancelled();
+            if (thumbnailSpecs != null && !thumbnailSpecs.isEmpty()) {
+                String[] previewThumbnails = saveThumbnails(video, previewPath, thumbnailSpecs);
+                video.setPreviewThumbnails(new ArrayList<>(Arrays.asList(previewThumbnails)));
+                video.setPreviewThumbnail(previewThumbnails[0]);
+                if (previewThumbnails.length > 1) {
+                    video.setPreviewThumbnailSmall(previewThumbnails[1]);
+                }
+            } else {
+                String[] previewThumbnails = downScaleAndSaveImages(video, previewPath,
+                        new int[]{THUMBNAIL_BIG, THUMBNAIL_SMALL}, quality);
+                video.setPreviewThumbnail(previewThumbnails[0]);
+                video.setPreviewThumbnailSmall(previewThumbnails[1]);
+            }
         }
     }
 
@@ -134,26 +170,33 @@ public final class VideoProcessorThread extends FileProcessorThread {
         this.shouldGeneratePreviewImages = shouldGeneratePreviewImages;
     }
 
-    private String createPreviewImage(String videoPath) throws PickerException {
+    private String createPreviewImage(ChosenVideo video) throws PickerException {
+        String videoPath = video.getOriginalPath();
+        String renditionKey = getRenditionKey(videoPath, "preview", Integer.toString(quality));
+        RenditionCache.Rendition rendition = getRendition(renditionKey);
+        if (rendition != null) {
+            return rendition.getPath();
+        }
         String previewImage;
         previewImage = null;
         Bitmap bitmap = ThumbnailUtils.createVideoThumbnail(videoPath,
                 MediaStore.Video.Thumbnails.FULL_SCREEN_KIND);
         if (bitmap != null) {
             previewImage = generateFileNameForVideoPreviewImage();
+            trackOutput(video, previewImage);
             File file = new File(previewImage);
 
             FileOutputStream stream = null;
             try {
                 stream = new FileOutputStream(file);
-                bitmap.compress(Bitmap.CompressFormat.JPEG, 100, stream);
+                bitmap.compress(BitmapUtils.getCompressFormat(getOutputFormat()), quality, stream);
             } catch (IOException e) {
                 throw new PickerException(e);
             } finally {
                 flush(stream);
                 close(stream);
             }
-
+            putRendition(renditionKey, new RenditionCache.Rendition(previewImage));
         }
         return previewImage;
     }
@@ -161,4 +204,8 @@ public final class VideoProcessorThread extends FileProcessorThread {
     public void setThumbnailsImageQuality(int quality) {
         this.quality = quality;
     }
+
+    public void setThumbnailSpecs(List<ThumbnailSpec> thumbnailSpecs) {
+        this.thumbnailSpecs = thumbnailSpecs;
+    }
 }
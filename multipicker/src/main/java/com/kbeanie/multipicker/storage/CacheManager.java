@@ -0,0 +1,254 @@
+package storage;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import com.kbeanie.multipicker.api.entity.ChosenFile;
+import com.kbeanie.multipicker.api.entity.ChosenImage;
+import com.kbeanie.multipicker.api.entity.ChosenVideo;
+import com.kbeanie.multipicker.utils.LogUtils;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps the files written by the library within a size budget, removing the least recently used
+ * ones first. Files older than the max age are removed too, whatever the size.
+ * <p/>
+ * Every output of a successful pick is recorded with its size and the time it was last used
+ * (written, or given back again from the import index or the rendition cache). Only recorded files
+ * are ever removed, and never while a batch is using them. Files saved to
+ * {@link com.kbeanie.multipicker.api.CacheLocation#EXTERNAL_STORAGE_PUBLIC_DIR} belong to the user
+ * and are not recorded.
+ * <p/>
+ * Nothing is removed until a budget or a max age is set.
+ */
+public class CacheManager {
+    private final static String TAG = CacheManager.class.getSimpleName();
+    private final static String FILE = "com.kbeanie.multipicker.cache";
+    private final static String KEY_MAX_SIZE = "max_size";
+    private final static String KEY_MAX_AGE = "max_age";
+    // Entries are keyed by path, settings can't clash with them
+    private final static String ENTRY_PREFIX = "/";
+
+    // Files removed per step, so that a large trim doesn't hold the I/O lane
+    private final static int TRIM_STEP = 32;
+
+    private static CacheManager instance;
+
+    private final SharedPreferences prefs;
+    // Paths used by running batches, with the number of batches using them
+    private final Map<String, Integer> inUse = new HashMap<>();
+
+    private CacheManager(Context context) {
+        prefs = context.getSharedPreferences(FILE, Context.MODE_PRIVATE);
+    }
+
+    public static synchronized CacheManager getInstance(Context context) {
+        if (instance == null) {
+            instance = new CacheManager(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    /**
+     * @param maxSize Bytes the recorded files may take, 0 for no limit. Default is 0.
+     */
+    public void setMaxSize(long maxSize) {
+        prefs.edit().putLong(KEY_MAX_SIZE, Math.max(0, maxSize)).apply();
+    }
+
+    public long getMaxSize() {
+        return prefs.getLong(KEY_MAX_SIZE, 0);
+    }
+
+    /**
+     * @param maxAge Milliseconds a file is kept after it was last used, 0 for no limit. Default is 0.
+     */
+    public void setMaxAge(long maxAge) {
+        prefs.edit().putLong(KEY_MAX_AGE, Math.max(0, maxAge)).apply();
+    }
+
+    public long getMaxAge() {
+        return prefs.getLong(KEY_MAX_AGE, 0);
+    }
+
+    /**
+     * @return Bytes taken by the recorded files
+     */
+    public synchronized long getSize() {
+        long size = 0;
+        for (Entry entry : getEntries()) {
+            size += entry.size;
+        }
+        return size;
+    }
+
+    /**
+     * Record the files as used now
+     */
+    public synchronized void record(Collection<String> paths) {
+        SharedPreferences.Editor editor = prefs.edit();
+        long now = System.currentTimeMillis();
+        for (String path : paths) {
+            File file = new File(path);
+            if (file.isFile()) {
+                editor.putString(path, file.length() + ":" + now);
+            }
+        }
+        editor.apply();
+    }
+
+    /**
+     * Keep the files from being removed until they are released
+     */
+    public synchronized void use(Collection<String> paths) {
+        for (String path : paths) {
+            Integer count = inUse.get(path);
+            inUse.put(path, count == null ? 1 : count + 1);
+        }
+    }
+
+    public synchronized void release(Collection<String> paths) {
+        for (String path : paths) {
+            Integer count = inUse.get(path);
+            if (count == null || count <= 1) {
+                inUse.remove(path);
+            } else {
+                inUse.put(path, count - 1);
+            }
+        }
+    }
+
+    /**
+     * Remove some of the files over the budget or past the max age. Does I/O, don't call it on the
+     * main thread.
+     *
+     * @param keepSince Files used at or after this time are kept, whatever the budget. Pass the start
+     *                  of the batch which just finished, its files may not have reached the app yet.
+     * @return true if there are more files to remove
+     */
+    public synchronized boolean trimStep(long keepSince) {
+        long maxSize = getMaxSize();
+        long maxAge = getMaxAge();
+        if (maxSize == 0 && maxAge == 0) {
+            return false;
+        }
+        List<Entry> entries = getEntries();
+        long size = 0;
+        for (Entry entry : entries) {
+            size += entry.size;
+        }
+        // Least recently used first
+        Collections.sort(entries, new Comparator<Entry>() {
+            @Override
+            public int compare(Entry lhs, Entry rhs) {
+                return lhs.lastUsed < rhs.lastUsed ? -1 : (lhs.lastUsed == rhs.lastUsed ? 0 : 1);
+            }
+        });
+        long oldest = maxAge == 0 ? Long.MIN_VALUE : System.currentTimeMillis() - maxAge;
+        SharedPreferences.Editor editor = prefs.edit();
+        int removed = 0;
+        boolean more = false;
+        for (Entry entry : entries) {
+            boolean overBudget = maxSize != 0 && size > maxSize;
+            if (!overBudget && entry.lastUsed >= oldest) {
+                break;
+            }
+            if (entry.lastUsed >= keepSince) {
+                // Sorted by last use, all the others are recent too
+                break;
+            }
+            if (inUse.containsKey(entry.path)) {
+                continue;
+            }
+            if (removed == TRIM_STEP) {
+                more = true;
+                break;
+            }
+            File file = new File(entry.path);
+            if (file.exists() && !file.delete()) {
+                LogUtils.e(TAG, "trimStep: Couldn't delete " + entry.path);
+                continue;
+            }
+            editor.remove(entry.path);
+            size -= entry.size;
+            removed++;
+        }
+        editor.apply();
+        LogUtils.d(TAG, "trimStep: Removed " + removed + " files, " + size + " bytes left");
+        return more;
+    }
+
+    /**
+     * Every file written or given back for the chosen file
+     */
+    public static List<String> getPaths(ChosenFile file) {
+        List<String> paths = new ArrayList<>();
+        add(paths, file.getOriginalPath());
+        add(paths, file.getTempFile());
+        if (file instanceof ChosenImage) {
+            ChosenImage image = (ChosenImage) file;
+            add(paths, image.getThumbnailPath());
+            add(paths, image.getThumbnailSmallPath());
+            if (image.getThumbnails() != null) {
+                for (String path : image.getThumbnails()) {
+                    add(paths, path);
+                }
+            }
+        } else if (file instanceof ChosenVideo) {
+            ChosenVideo video = (ChosenVideo) file;
+            add(paths, video.getPreviewImage());
+            add(paths, video.getPreviewThumbnail());
+            add(paths, video.getPreviewThumbnailSmall());
+            if (video.getPreviewThumbnails() != null) {
+                for (String path : video.getPreviewThumbnails()) {
+                    add(paths, path);
+                }
+            }
+        }
+        return paths;
+    }
+
+    private static void add(List<String> paths, String path) {
+        if (path != null && !path.isEmpty() && !paths.contains(path)) {
+            paths.add(path);
+        }
+    }
+
+    private List<Entry> getEntries() {
+        List<Entry> entries = new ArrayList<>();
+        for (Map.Entry<String, ?> entry : prefs.getAll().entrySet()) {
+            if (!entry.getKey().startsWith(ENTRY_PREFIX) || !(entry.getValue() instanceof String)) {
+                continue;
+            }
+            String value = (String) entry.getValue();
+            int separator = value.indexOf(':');
+            try {
+                entries.add(new Entry(entry.getKey(), Long.parseLong(value.substring(0, separator)),
+                        Long.parseLong(value.substring(separator + 1))));
+            } catch (RuntimeException e) {
+                LogUtils.d(TAG, "getEntries: Bad entry for " + entry.getKey());
+            }
+        }
+        return entries;
+    }
+
+    private static class Entry {
+        final String path;
+        final long size;
+        final long lastUsed;
+
+        Entry(String path, long size, long lastUsed) {
+            this.path = path;
+            this.size = size;
+            this.lastUsed = lastUsed;
+        }
+    }
+}
@@ -0,0 +1,215 @@
+package storage;
+
+import android.content.Context;
+
+import com.kbeanie.multipicker.utils.FileUtils;
+import com.kbeanie.multipicker.utils.LogUtils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * Journal of the files written while processing a batch, so that the ones which are not part of the
+ * result are deleted even if the application dies before the batch is finished.
+ * <p/>
+ * Every file is added before it is used, and marked as kept once it is part of a chosen file. When
+ * the batch is finished, the remaining files have already been deleted and the journal is removed.
+ * Journals left behind by a crash are replayed by {@link #recover(Context)}: the files which were
+ * never kept are deleted, or moved back if they were moved there from a path of their own.
+ */
+public class CleanupJournal {
+    private final static String TAG = CleanupJournal.class.getSimpleName();
+    private final static String DIRECTORY = "multipicker-journal";
+    private final static String EXTENSION = ".journal";
+    private final static char ADDED = '+';
+    private final static char KEPT = '-';
+    private final static char MOVED = '>';
+    // Paths can't have it, it separates the two paths of a move
+    private final static char SEPARATOR = '\0';
+
+    // Journals of the batches running in this process, they are not replayed
+    private final static Set<String> open = Collections.synchronizedSet(new HashSet<String>());
+    private static boolean recovered;
+
+    private final File journal;
+    private OutputStream stream;
+
+    private CleanupJournal(File journal) throws IOException {
+        this.journal = journal;
+        // Lines are written straight to the file, they survive the process
+        stream = new FileOutputStream(journal, true);
+    }
+
+    /**
+     * Start a journal for a new batch
+     */
+    public static CleanupJournal open(Context context) throws IOException {
+        File directory = getDirectory(context);
+        if (!directory.exists() && !directory.mkdirs()) {
+            throw new IOException("Couldn't create " + directory.getAbsolutePath());
+        }
+        File journal = new File(directory, UUID.randomUUID().toString() + EXTENSION);
+        open.add(journal.getAbsolutePath());
+        return new CleanupJournal(journal);
+    }
+
+    /**
+     * Delete the files left behind by batches which never finished, the first time it is called in
+     * the process. Does I/O, don't call it on the main thread.
+     */
+    public static void recover(Context context) {
+        synchronized (CleanupJournal.class) {
+            if (recovered) {
+                return;
+            }
+            recovered = true;
+        }
+        File[] journals = getDirectory(context).listFiles();
+        if (journals == null) {
+            return;
+        }
+        for (File journal : journals) {
+            if (!journal.getName().endsWith(EXTENSION) || open.contains(journal.getAbsolutePath())) {
+                continue;
+            }
+            try {
+                for (Map.Entry<String, String> entry : read(journal).entrySet()) {
+                    if (entry.getValue() != null) {
+                        undoMove(entry.getValue(), entry.getKey());
+                        continue;
+                    }
+                    File file = new File(entry.getKey());
+                    if (file.exists() && !file.delete()) {
+                        LogUtils.e(TAG, "recover: Couldn't delete " + entry.getKey());
+                    }
+                }
+            } catch (IOException e) {
+                LogUtils.e(TAG, "recover: " + e.getMessage());
+            }
+            if (!journal.delete()) {
+                LogUtils.e(TAG, "recover: Couldn't delete " + journal.getAbsolutePath());
+            }
+        }
+    }
+
+    /**
+     * Record a file written for the batch. It is deleted on recovery unless it is kept.
+     */
+    public synchronized void add(String path) {
+        write(ADDED, path);
+    }
+
+    /**
+     * Record a file about to be moved for the batch, instead of being written. Unless it is kept, it
+     * is moved back on recovery.
+     */
+    public synchronized void move(String from, String to) {
+        write(MOVED, to + SEPARATOR + from);
+    }
+
+    /**
+     * Give a moved file back its first path. If it is still there, the move didn't happen and the
+     * other file is deleted. Does I/O, don't call it on the main thread.
+     */
+    public static void undoMove(String from, String to) {
+        File source = new File(from);
+        File destination = new File(to);
+        if (!destination.exists()) {
+            return;
+        }
+        if (source.exists()) {
+            if (!destination.delete()) {
+                LogUtils.e(TAG, "undoMove: Couldn't delete " + to);
+            }
+            return;
+        }
+        try {
+            FileUtils.moveFile(destination, source, null);
+        } catch (IOException e) {
+            LogUtils.e(TAG, "undoMove: Couldn't move " + to + " back: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Record a file as part of the result of the batch
+     */
+    public synchronized void keep(String path) {
+        write(KEPT, path);
+    }
+
+    /**
+     * Remove the journal, once the batch is finished and its other files deleted
+     */
+    public synchronized void close() {
+        if (stream != null) {
+            try {
+                stream.close();
+            } catch (IOException e) {
+                LogUtils.e(TAG, "close: " + e.getMessage());
+            }
+            stream = null;
+        }
+        if (!journal.delete()) {
+            LogUtils.e(TAG, "close: Couldn't delete " + journal.getAbsolutePath());
+        }
+        open.remove(journal.getAbsolutePath());
+    }
+
+    private void write(char operation, String path) {
+        if (stream == null) {
+            return;
+        }
+        try {
+            stream.write((operation + path + "\n").getBytes("UTF-8"));
+        } catch (IOException e) {
+            LogUtils.e(TAG, "write: " + e.getMessage());
+        }
+    }
+
+    // Files added and not kept, with the path they were moved from if they were
+    private static Map<String, String> read(File journal) throws IOException {
+        Map<String, String> paths = new LinkedHashMap<>();
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        InputStream input = new FileInputStream(journal);
+        try {
+            FileUtils.copyLarge(input, content, null);
+        } finally {
+            input.close();
+        }
+        String[] lines = content.toString("UTF-8").split("\n", -1);
+        // The last line is either empty or was cut short by the crash
+        for (int i = 0; i < lines.length - 1; i++) {
+            String line = lines[i];
+            if (line.length() < 2) {
+                continue;
+            }
+            String path = line.substring(1);
+            if (line.charAt(0) == ADDED) {
+                paths.put(path, null);
+            } else if (line.charAt(0) == KEPT) {
+                paths.remove(path);
+            } else if (line.charAt(0) == MOVED) {
+                int separator = path.indexOf(SEPARATOR);
+                if (separator != -1) {
+                    paths.put(path.substring(0, separator), path.substring(separator + 1));
+                }
+            }
+        }
+        return paths;
+    }
+
+    private static File getDirectory(Context context) {
+        return new File(context.getFilesDir(), DIRECTORY);
+    }
+}
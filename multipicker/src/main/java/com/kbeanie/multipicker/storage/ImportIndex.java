@@ -0,0 +1,223 @@
+package storage;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import com.kbeanie.multipicker.api.entity.ChosenAudio;
+import com.kbeanie.multipicker.api.entity.ChosenFile;
+import com.kbeanie.multipicker.api.entity.ChosenImage;
+import com.kbeanie.multipicker.api.entity.ChosenVideo;
+import com.kbeanie.multipicker.utils.LogUtils;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Chosen files which were already imported, so that picking the same source again doesn't copy and
+ * process it again.
+ * <p/>
+ * Entries are keyed by the source (query uri, size and last modified time) and the settings it was
+ * processed with, and hold the paths and details of the outputs. An entry is only used while all of
+ * its outputs still exist.
+ */
+public class ImportIndex {
+    private final static String TAG = ImportIndex.class.getSimpleName();
+    private final static String FILE = "com.kbeanie.multipicker.imports";
+    // Part of every key, entries written in another format are never read
+    private final static int VERSION = 1;
+
+    private static ImportIndex instance;
+
+    private final SharedPreferences prefs;
+
+    private ImportIndex(Context context) {
+        prefs = context.getSharedPreferences(FILE, Context.MODE_PRIVATE);
+    }
+
+    public static synchronized ImportIndex getInstance(Context context) {
+        if (instance == null) {
+            instance = new ImportIndex(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    /**
+     * @param parameters Settings which change the outputs, files processed with other settings don't match
+     */
+    public static String buildKey(String queryUri, long size, long lastModified, String parameters) {
+        String source = VERSION + "|" + queryUri + "|" + size + "|" + lastModified + "|" + parameters;
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(source.getBytes("UTF-8"));
+            StringBuilder builder = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                builder.append(String.format(Locale.ENGLISH, "%02x", b & 0xff));
+            }
+            return builder.toString();
+        } catch (NoSuchAlgorithmException e) {
+            return source;
+        } catch (UnsupportedEncodingException e) {
+            return source;
+        }
+    }
+
+    /**
+     * Fills the file with the outputs of its earlier import.
+     *
+     * @return false if there is no entry, or some of its outputs are gone. The file is left untouched.
+     */
+    public synchronized boolean restore(String key, ChosenFile file) {
+        String entry = prefs.getString(key, null);
+        if (entry == null) {
+            return false;
+        }
+        try {
+            JSONObject json = new JSONObject(entry);
+            if (!json.optString("type").equals(file.getType())) {
+                return false;
+            }
+            for (String path : getOutputs(json)) {
+                if (!new File(path).exists()) {
+                    LogUtils.d(TAG, "restore: Output is gone, dropping entry: " + path);
+                    remove(key);
+                    return false;
+                }
+            }
+            fromJson(json, file);
+            return true;
+        } catch (JSONException e) {
+            remove(key);
+            return false;
+        }
+    }
+
+    public synchronized void put(String key, ChosenFile file) {
+        try {
+            prefs.edit().putString(key, toJson(file).toString()).apply();
+        } catch (JSONException e) {
+            LogUtils.e(TAG, "put: " + e.getMessage());
+        }
+    }
+
+    public synchronized void remove(String key) {
+        prefs.edit().remove(key).apply();
+    }
+
+    public synchronized void clear() {
+        prefs.edit().clear().apply();
+    }
+
+    private static JSONObject toJson(ChosenFile file) throws JSONException {
+        JSONObject json = new JSONObject();
+        json.put("type", file.getType());
+        json.put("originalPath", file.getOriginalPath());
+        json.put("mimeType", file.getMimeType());
+        json.put("extension", file.getExtension());
+        json.put("size", file.getSize());
+        json.put("displayName", file.getDisplayName());
+        json.put("directoryType", file.getDirectoryType());
+        json.put("checksum", file.getChecksum());
+        json.put("checksumAlgorithm", file.getChecksumAlgorithm());
+        if (file instanceof ChosenImage) {
+            ChosenImage image = (ChosenImage) file;
+            json.put("width", image.getWidth());
+            json.put("height", image.getHeight());
+            json.put("orientation", image.getOrientation());
+            json.put("quality", image.getQuality());
+            json.put("thumbnailPath", image.getThumbnailPath());
+            json.put("thumbnailSmallPath", image.getThumbnailSmallPath());
+            json.put("thumbnails", new JSONArray(image.getThumbnails()));
+        } else if (file instanceof ChosenVideo) {
+            ChosenVideo video = (ChosenVideo) file;
+            json.put("width", video.getWidth());
+            json.put("height", video.getHeight());
+            json.put("orientation", video.getOrientation());
+            json.put("duration", video.getDuration());
+            json.put("previewImage", video.getPreviewImage());
+            json.put("previewThumbnail", video.getPreviewThumbnail());
+            json.put("previewThumbnailSmall", video.getPreviewThumbnailSmall());
+            json.put("previewThumbnails", new JSONArray(video.getPreviewThumbnails()));
+        } else if (file instanceof ChosenAudio) {
+            json.put("duration", ((ChosenAudio) file).getDuration());
+        }
+        return json;
+    }
+
+    private static void fromJson(JSONObject json, ChosenFile file) throws JSONException {
+        file.setOriginalPath(json.getString("originalPath"));
+        file.setMimeType(optString(json, "mimeType"));
+        file.setExtension(optString(json, "extension"));
+        file.setSize(json.optLong("size"));
+        file.setDisplayName(optString(json, "displayName"));
+        file.setDirectoryType(optString(json, "directoryType"));
+        file.setChecksum(optString(json, "checksum"));
+        file.setChecksumAlgorithm(json.optInt("checksumAlgorithm"));
+        if (file instanceof ChosenImage) {
+            ChosenImage image = (ChosenImage) file;
+            image.setWidth(json.optInt("width"));
+            image.setHeight(json.optInt("height"));
+            image.setOrientation(json.optInt("orientation"));
+            image.setQuality(json.optInt("quality"));
+            image.setThumbnailPath(optString(json, "thumbnailPath"));
+            image.setThumbnailSmallPath(optString(json, "thumbnailSmallPath"));
+            image.setThumbnails(toList(json.optJSONArray("thumbnails")));
+        } else if (file instanceof ChosenVideo) {
+            ChosenVideo video = (ChosenVideo) file;
+            video.setWidth(json.optInt("width"));
+            video.setHeight(json.optInt("height"));
+            video.setOrientation(json.optInt("orientation"));
+            video.setDuration(json.optLong("duration"));
+            video.setPreviewImage(optString(json, "previewImage"));
+            video.setPreviewThumbnail(optString(json, "previewThumbnail"));
+            video.setPreviewThumbnailSmall(optString(json, "previewThumbnailSmall"));
+            video.setPreviewThumbnails(toList(json.optJSONArray("previewThumbnails")));
+        } else if (file instanceof ChosenAudio) {
+            ((ChosenAudio) file).setDuration(json.optLong("duration"));
+        }
+    }
+
+    // Every file written for the entry
+    private static List<String> getOutputs(JSONObject json) throws JSONException {
+        List<String> outputs = new ArrayList<>();
+        outputs.add(json.getString("originalPath"));
+        for (String key : new String[]{"thumbnailPath", "thumbnailSmallPath", "previewImage",
+                "previewThumbnail", "previewThumbnailSmall"}) {
+            String path = optString(json, key);
+            if (path != null && !path.isEmpty()) {
+                outputs.add(path);
+            }
+        }
+        for (String key : new String[]{"thumbnails", "previewThumbnails"}) {
+            for (String path : toList(json.optJSONArray(key))) {
+                if (path != null) {
+                    outputs.add(path);
+                }
+            }
+        }
+        return outputs;
+    }
+
+    // optString() turns null into "null"
+    private static String optString(JSONObject json, String key) {
+        return json.isNull(key) ? null : json.optString(key);
+    }
+
+    private static List<String> toList(JSONArray array) {
+        List<String> list = new ArrayList<>();
+        if (array == null) {
+            return list;
+        }
+        for (int i = 0; i < array.length(); i++) {
+            list.add(array.isNull(i) ? null : array.optString(i));
+        }
+        return list;
+    }
+}
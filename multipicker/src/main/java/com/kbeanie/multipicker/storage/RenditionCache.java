@@ -0,0 +1,150 @@
+package storage;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import com.kbeanie.multipicker.utils.LogUtils;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Resized images, thumbnails and video previews which were already generated, so that they are not
+ * generated again for the same source with the same settings.
+ * <p/>
+ * Entries are keyed by the identity of the source file (its content, not its path, as every pick
+ * makes a new copy) and the settings of the rendition. A rendition is only reused while its file
+ * still exists.
+ */
+public class RenditionCache {
+    private final static String TAG = RenditionCache.class.getSimpleName();
+    private final static String FILE = "com.kbeanie.multipicker.renditions";
+    // Part of every key, entries written in another format are never read
+    private final static int VERSION = 2;
+
+    private static RenditionCache instance;
+
+    private final SharedPreferences prefs;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    private RenditionCache(Context context) {
+        prefs = context.getSharedPreferences(FILE, Context.MODE_PRIVATE);
+    }
+
+    public static synchronized RenditionCache getInstance(Context context) {
+        if (instance == null) {
+            instance = new RenditionCache(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    /**
+     * @param sourceIdentity Identifies the content of the source file
+     * @param rendition      What is generated, ex: "resized", "scale-2"
+     * @param parameters     Settings which change the output
+     */
+    public static String buildKey(String sourceIdentity, String rendition, String parameters) {
+        return VERSION + "|" + sourceIdentity + "|" + rendition + "|" + parameters;
+    }
+
+    /**
+     * @return The rendition, or null if there is none or its file is gone
+     */
+    public Rendition get(String key) {
+        String entry = prefs.getString(key, null);
+        if (entry != null) {
+            try {
+                JSONObject json = new JSONObject(entry);
+                Rendition rendition = new Rendition(json.getString("path"), json.optInt("width"),
+                        json.optInt("height"), json.optInt("quality"));
+                if (new File(rendition.getPath()).exists()) {
+                    hits.incrementAndGet();
+                    return rendition;
+                }
+                LogUtils.d(TAG, "get: File is gone: " + rendition.getPath());
+            } catch (JSONException e) {
+                LogUtils.e(TAG, "get: " + e.getMessage());
+            }
+            prefs.edit().remove(key).apply();
+        }
+        misses.incrementAndGet();
+        return null;
+    }
+
+    public void put(String key, Rendition rendition) {
+        try {
+            JSONObject json = new JSONObject();
+            json.put("path", rendition.getPath());
+            json.put("width", rendition.getWidth());
+            json.put("height", rendition.getHeight());
+            json.put("quality", rendition.getQuality());
+            prefs.edit().putString(key, json.toString()).apply();
+        } catch (JSONException e) {
+            LogUtils.e(TAG, "put: " + e.getMessage());
+        }
+    }
+
+    public void clear() {
+        prefs.edit().clear().apply();
+    }
+
+    /**
+     * Renditions found in the cache since the application started
+     */
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     * Renditions looked for and not found (and so generated) since the application started
+     */
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    public void resetCounts() {
+        hits.set(0);
+        misses.set(0);
+    }
+
+    /**
+     * A generated file, with the details which go with it. Width, height and quality are 0 when unknown.
+     */
+    public static class Rendition {
+        private final String path;
+        private final int width;
+        private final int height;
+        private final int quality;
+
+        public Rendition(String path) {
+            this(path, 0, 0, 0);
+        }
+
+        public Rendition(String path, int width, int height, int quality) {
+            this.path = path;
+            this.width = width;
+            this.height = height;
+            this.quality = quality;
+        }
+
+        public String getPath() {
+            return path;
+        }
+
+        public int getWidth() {
+            return width;
+        }
+
+        public int getHeight() {
+            return height;
+        }
+
+        public int getQuality() {
+            return quality;
+        }
+    }
+}
@@ -0,0 +1,155 @@
+package com.kbeanie.multipicker.utils;
+
+import android.annotation.TargetApi;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.RectF;
+import android.os.Build;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Bitmaps which can be decoded or drawn into again, instead of allocating new ones.
+ * <p/>
+ * Bitmaps are kept in size classes (powers of 2 of their byte count), so that a request is served
+ * by a bitmap at most 4 times as large as needed. Reusing a bitmap of a different size needs
+ * {@link Bitmap#reconfigure(int, int, Bitmap.Config)}, so nothing is pooled before KitKat.
+ * <p/>
+ * Not shared between batches: {@link #clear()} recycles everything once the batch is done.
+ */
+public class BitmapPool {
+    private final static String TAG = BitmapPool.class.getSimpleName();
+    private final static long MAX_POOL_BYTES = 64 * 1024 * 1024;
+
+    private final Map<Integer, ArrayDeque<Bitmap>> sizeClasses = new HashMap<>();
+    private final long maxBytes;
+    private long bytes;
+
+    public BitmapPool() {
+        this(Math.min(Runtime.getRuntime().maxMemory() / 8, MAX_POOL_BYTES));
+    }
+
+    public BitmapPool(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * @return A mutable bitmap with room for at least these dimensions, or null if none is available.
+     * It still has its old dimensions, {@link android.graphics.BitmapFactory.Options#inBitmap} takes care of that when decoding.
+     */
+    @TargetApi(Build.VERSION_CODES.KITKAT)
+    public synchronized Bitmap get(int width, int height, Bitmap.Config config) {
+        if (!isSupported()) {
+            return null;
+        }
+        int needed = width * height * getBytesPerPixel(config);
+        int sizeClass = getSizeClass(needed);
+        // Bitmaps of the next class are always large enough, the ones of the same class may be
+        for (int i = sizeClass; i <= sizeClass + 1; i++) {
+            ArrayDeque<Bitmap> bitmaps = sizeClasses.get(i);
+            if (bitmaps == null) {
+                continue;
+            }
+            Iterator<Bitmap> iterator = bitmaps.iterator();
+            while (iterator.hasNext()) {
+                Bitmap bitmap = iterator.next();
+                if (bitmap.getAllocationByteCount() >= needed) {
+                    iterator.remove();
+                    bytes -= bitmap.getAllocationByteCount();
+                    return bitmap;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Give a bitmap back once it is not used anymore. It is recycled if it can't be pooled.
+     */
+    @TargetApi(Build.VERSION_CODES.KITKAT)
+    public synchronized void put(Bitmap bitmap) {
+        if (bitmap == null || bitmap.isRecycled()) {
+            return;
+        }
+        if (!isSupported() || !bitmap.isMutable() || bytes + bitmap.getAllocationByteCount() > maxBytes) {
+            bitmap.recycle();
+            return;
+        }
+        int sizeClass = getSizeClass(bitmap.getAllocationByteCount());
+        ArrayDeque<Bitmap> bitmaps = sizeClasses.get(sizeClass);
+        if (bitmaps == null) {
+            bitmaps = new ArrayDeque<>();
+            sizeClasses.put(sizeClass, bitmaps);
+        }
+        bitmaps.push(bitmap);
+        bytes += bitmap.getAllocationByteCount();
+    }
+
+    /**
+     * Recycles all the pooled bitmaps
+     */
+    public synchronized void clear() {
+        LogUtils.d(TAG, "clear: Recycling " + bytes + " bytes");
+        for (ArrayDeque<Bitmap> bitmaps : sizeClasses.values()) {
+            for (Bitmap bitmap : bitmaps) {
+                bitmap.recycle();
+            }
+        }
+        sizeClasses.clear();
+        bytes = 0;
+    }
+
+    /**
+     * Scales and rotates the source into a pooled bitmap, or a new one if none is available.
+     *
+     * @param width  Width of the scaled source, before rotation
+     * @param height Height of the scaled source, before rotation
+     * @param rotate Degrees, a multiple of 90
+     */
+    @TargetApi(Build.VERSION_CODES.KITKAT)
+    public Bitmap transform(Bitmap source, int width, int height, int rotate) {
+        Matrix matrix = new Matrix();
+        matrix.setScale(width / (float) source.getWidth(), height / (float) source.getHeight());
+        matrix.postRotate(rotate);
+        RectF bounds = new RectF(0, 0, source.getWidth(), source.getHeight());
+        matrix.mapRect(bounds);
+        matrix.postTranslate(-bounds.left, -bounds.top);
+        int outWidth = Math.round(bounds.width());
+        int outHeight = Math.round(bounds.height());
+
+        Bitmap.Config config = source.getConfig() != null ? source.getConfig() : Bitmap.Config.ARGB_8888;
+        Bitmap target = get(outWidth, outHeight, config);
+        if (target != null) {
+            target.reconfigure(outWidth, outHeight, config);
+            target.eraseColor(Color.TRANSPARENT);
+        } else {
+            target = Bitmap.createBitmap(outWidth, outHeight, config);
+        }
+        Canvas canvas = new Canvas(target);
+        canvas.drawBitmap(source, matrix, new Paint(Paint.FILTER_BITMAP_FLAG));
+        return target;
+    }
+
+    private static boolean isSupported() {
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT;
+    }
+
+    private static int getSizeClass(int bytes) {
+        return 31 - Integer.numberOfLeadingZeros(Math.max(1, bytes));
+    }
+
+    private static int getBytesPerPixel(Bitmap.Config config) {
+        if (config == Bitmap.Config.ALPHA_8) {
+            return 1;
+        } else if (config == Bitmap.Config.RGB_565) {
+            return 2;
+        }
+        return 4;
+    }
+}
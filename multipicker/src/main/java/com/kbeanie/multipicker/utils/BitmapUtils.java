@@ -1,5 +1,10 @@
 package com.kbeanie.multipicker.utils;
 
+import android.graphics.Bitmap;
+import android.os.Build;
+
+import com.kbeanie.multipicker.api.ImageFormat;
+
 /**
  * Created by kbibek on 3/18/16.
  */
@@ -23,7 +28,8 @@ public class BitmapUtils {
                 values[0] = outWidth;
                 values[1] = outHeight;
             } else if (originalWidth >= maxWidth && originalHeight >= maxHeight) {
-                if (originalHeight > originalHeight) {
+                // The side which overflows its bound the most decides
+                if ((float) originalHeight / maxHeight > (float) originalWidth / maxWidth) {
                     int outHeight = maxHeight;
                     float ratio = (float) originalWidth / originalHeight;
                     int outWidth = (int) (ratio * (float) outHeight);
@@ -40,4 +46,65 @@ public class BitmapUtils {
         }
         return values;
     }
+
+    /**
+     * Largest power of 2 sample size with which the decoded image is still at least as large as the target
+     */
+    public static int getSampleSize(int originalWidth, int originalHeight, int targetWidth, int targetHeight) {
+        int sampleSize = 1;
+        while (originalWidth / (sampleSize * 2) >= targetWidth && originalHeight / (sampleSize * 2) >= targetHeight) {
+            sampleSize *= 2;
+        }
+        return sampleSize;
+    }
+
+    /**
+     * @param format One of {@link ImageFormat}
+     */
+    public static Bitmap.CompressFormat getCompressFormat(int format) {
+        switch (format) {
+            case ImageFormat.PNG:
+                return Bitmap.CompressFormat.PNG;
+            case ImageFormat.WEBP:
+                return Bitmap.CompressFormat.WEBP;
+            case ImageFormat.WEBP_LOSSY:
+            case ImageFormat.WEBP_LOSSLESS:
+                // Only in the SDK from Android 11, looked up by name to build against older ones
+                if (Build.VERSION.SDK_INT >= 30) {
+                    return Bitmap.CompressFormat.valueOf(format == ImageFormat.WEBP_LOSSY ? "WEBP_LOSSY" : "WEBP_LOSSLESS");
+                }
+                return Bitmap.CompressFormat.WEBP;
+            default:
+                return Bitmap.CompressFormat.JPEG;
+        }
+    }
+
+    /**
+     * @return True if the format ignores the quality. Lossless WebP is only available from Android 11.
+     */
+    public static boolean isLossless(int format) {
+        return format == ImageFormat.PNG || (format == ImageFormat.WEBP_LOSSLESS && Build.VERSION.SDK_INT >= 30);
+    }
+
+    public static String getMimeType(int format) {
+        String extension = getExtension(format);
+        return "image/" + (extension.equals("jpg") ? "jpeg" : extension);
+    }
+
+    /**
+     * @param format One of {@link ImageFormat}
+     * @return File extension, without the dot
+     */
+    public static String getExtension(int format) {
+        switch (format) {
+            case ImageFormat.PNG:
+                return "png";
+            case ImageFormat.WEBP:
+            case ImageFormat.WEBP_LOSSY:
+            case ImageFormat.WEBP_LOSSLESS:
+                return "webp";
+            default:
+                return "jpg";
+        }
+    }
 }
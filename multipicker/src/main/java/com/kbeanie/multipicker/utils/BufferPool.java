@@ -0,0 +1,90 @@
+package com.kbeanie.multipicker.utils;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+
+/**
+ * Copy buffers shared by all the pickers of your application.
+ * <p/>
+ * Every copy loop borrows its buffer here and gives it back once done, so importing a batch
+ * doesn't allocate a new buffer for each file. Only a few buffers are kept, about one per thread
+ * copying at the same time.
+ */
+public final class BufferPool {
+    public final static int MIN_BUFFER_SIZE = 64 * 1024;
+    public final static int MAX_BUFFER_SIZE = 256 * 1024;
+    private final static int DEFAULT_BUFFER_SIZE = 128 * 1024;
+    private final static int MAX_POOLED_BUFFERS = 4;
+
+    private static BufferPool instance;
+
+    private int bufferSize = DEFAULT_BUFFER_SIZE;
+    private final ArrayDeque<byte[]> buffers = new ArrayDeque<>();
+    private final ArrayDeque<ByteBuffer> directBuffers = new ArrayDeque<>();
+
+    private BufferPool() {
+
+    }
+
+    public static synchronized BufferPool getInstance() {
+        if (instance == null) {
+            instance = new BufferPool();
+        }
+        return instance;
+    }
+
+    /**
+     * Set the size of the buffers used to copy files. Larger buffers mean fewer reads and writes
+     * for large files. Buffers already handed out are dropped when they come back.
+     *
+     * @param bufferSize Between {@link #MIN_BUFFER_SIZE} and {@link #MAX_BUFFER_SIZE}. Default is 128 KB.
+     */
+    public static void setBufferSize(int bufferSize) {
+        if (bufferSize < MIN_BUFFER_SIZE || bufferSize > MAX_BUFFER_SIZE) {
+            throw new IllegalArgumentException("Buffer size must be between " + MIN_BUFFER_SIZE
+                    + " and " + MAX_BUFFER_SIZE);
+        }
+        BufferPool pool = getInstance();
+        synchronized (pool) {
+            pool.bufferSize = bufferSize;
+            pool.buffers.clear();
+            pool.directBuffers.clear();
+        }
+    }
+
+    public synchronized int getBufferSize() {
+        return bufferSize;
+    }
+
+    public synchronized byte[] acquire() {
+        byte[] buffer = buffers.poll();
+        if (buffer == null) {
+            buffer = new byte[bufferSize];
+        }
+        return buffer;
+    }
+
+    public synchronized void release(byte[] buffer) {
+        if (buffer != null && buffer.length == bufferSize && buffers.size() < MAX_POOLED_BUFFERS) {
+            buffers.push(buffer);
+        }
+    }
+
+    /**
+     * Direct buffers are meant for channel reads and writes, their content stays out of the Java heap.
+     */
+    public synchronized ByteBuffer acquireDirect() {
+        ByteBuffer buffer = directBuffers.poll();
+        if (buffer == null) {
+            buffer = ByteBuffer.allocateDirect(bufferSize);
+        }
+        buffer.clear();
+        return buffer;
+    }
+
+    public synchronized void release(ByteBuffer buffer) {
+        if (buffer != null && buffer.capacity() == bufferSize && directBuffers.size() < MAX_POOLED_BUFFERS) {
+            directBuffers.push(buffer);
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package com.kbeanie.multipicker.utils;
+
+import com.kbeanie.multipicker.api.ChecksumAlgorithm;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.net.URLConnection;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Locale;
+import java.util.zip.CRC32;
+
+/**
+ * Looks at the bytes of a file while it is being copied. Counts them, guesses the mime type
+ * from the first ones and computes a checksum, so that the copy doesn't have to be read again.
+ */
+public class CopyInspector {
+    /**
+     * {@link URLConnection#guessContentTypeFromStream(java.io.InputStream)} doesn't look any further
+     */
+    public final static int HEADER_LENGTH = 16;
+
+    private final int checksumAlgorithm;
+    private final byte[] header = new byte[HEADER_LENGTH];
+    private int headerLength;
+    private long size;
+    private CRC32 crc32;
+    private MessageDigest messageDigest;
+    private String checksum;
+
+    /**
+     * @param checksumAlgorithm One of {@link ChecksumAlgorithm}
+     */
+    public CopyInspector(int checksumAlgorithm) {
+        this.checksumAlgorithm = checksumAlgorithm;
+        switch (checksumAlgorithm) {
+            case ChecksumAlgorithm.CRC32:
+                crc32 = new CRC32();
+                break;
+            case ChecksumAlgorithm.SHA_256:
+                try {
+                    messageDigest = MessageDigest.getInstance("SHA-256");
+                } catch (NoSuchAlgorithmException e) {
+                    throw new IllegalStateException(e);
+                }
+                break;
+        }
+    }
+
+    /**
+     * If true, every byte has to go through {@link #update(byte[], int, int)}
+     */
+    public boolean hasChecksum() {
+        return crc32 != null || messageDigest != null;
+    }
+
+    public boolean needsHeader() {
+        return headerLength < HEADER_LENGTH && size == headerLength;
+    }
+
+    public void update(byte[] buffer, int offset, int length) {
+        if (needsHeader()) {
+            int count = Math.min(length, HEADER_LENGTH - headerLength);
+            System.arraycopy(buffer, offset, header, headerLength, count);
+            headerLength += count;
+        }
+        if (crc32 != null) {
+            crc32.update(buffer, offset, length);
+        }
+        if (messageDigest != null) {
+            messageDigest.update(buffer, offset, length);
+        }
+        size += length;
+    }
+
+    /**
+     * Counts bytes which were copied without being looked at. Not allowed with a checksum.
+     */
+    public void skip(long length) {
+        if (hasChecksum()) {
+            throw new IllegalStateException("All the bytes are needed to compute the checksum");
+        }
+        size += length;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public int getChecksumAlgorithm() {
+        return checksumAlgorithm;
+    }
+
+    /**
+     * @return Checksum in hexadecimal, or null if none was asked for
+     */
+    public String getChecksum() {
+        if (checksum == null && crc32 != null) {
+            checksum = String.format(Locale.ENGLISH, "%08x", crc32.getValue());
+        } else if (checksum == null && messageDigest != null) {
+            // The digest can only be taken once
+            byte[] digest = messageDigest.digest();
+            StringBuilder builder = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                builder.append(String.format(Locale.ENGLISH, "%02x", b & 0xff));
+            }
+            checksum = builder.toString();
+        }
+        return checksum;
+    }
+
+    /**
+     * @return Mime type guessed from the first bytes, or null
+     */
+    public String getMimeType() {
+        try {
+            return URLConnection.guessContentTypeFromStream(new ByteArrayInputStream(header, 0, headerLength));
+        } catch (IOException e) {
+            return null;
+        }
+    }
+}
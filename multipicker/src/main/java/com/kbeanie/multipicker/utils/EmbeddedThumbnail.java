@@ -0,0 +1,58 @@
+package com.kbeanie.multipicker.utils;
+
+import com.kbeanie.multipicker.api.entity.ChosenImage;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+/**
+ * The JPEG thumbnail camera pictures have in their EXIF tags, used as it is instead of decoding
+ * the whole image.
+ */
+public final class EmbeddedThumbnail {
+
+    private EmbeddedThumbnail() {
+
+    }
+
+    /**
+     * File of the image which still has its EXIF thumbnail. Resized or re-encoded images are
+     * written by Bitmap.compress, without one, so it is the imported file they were made from.
+     */
+    public static String getSource(ChosenImage image) {
+        String tempFile = image.getTempFile();
+        return tempFile != null && !tempFile.isEmpty() ? tempFile : image.getOriginalPath();
+    }
+
+    /**
+     * @return The thumbnail, or null if there isn't one, it is smaller than asked, or it doesn't
+     * match the image without being rotated or cropped
+     */
+    public static byte[] read(String image, int minWidth, int minHeight) throws IOException {
+        ImageMetadata metadata = ImageMetadata.read(image);
+        if (!metadata.hasThumbnail() || metadata.getRotation() != 0) {
+            return null;
+        }
+        byte[] thumbnail = new byte[metadata.getThumbnailLength()];
+        RandomAccessFile file = new RandomAccessFile(image, "r");
+        try {
+            file.seek(metadata.getThumbnailOffset());
+            file.readFully(thumbnail);
+        } finally {
+            file.close();
+        }
+        ImageMetadata thumbnailMetadata = ImageHeaderParser.parse(new ByteArrayInputStream(thumbnail));
+        if (thumbnailMetadata == null || !"image/jpeg".equals(thumbnailMetadata.getMimeType())
+                || thumbnailMetadata.getWidth() < minWidth || thumbnailMetadata.getHeight() < minHeight) {
+            return null;
+        }
+        // Some cameras letterbox the thumbnail when the image isn't 4:3
+        float ratio = metadata.getWidth() / (float) metadata.getHeight();
+        float thumbnailRatio = thumbnailMetadata.getWidth() / (float) thumbnailMetadata.getHeight();
+        if (Math.abs(ratio - thumbnailRatio) > ratio * 0.05f) {
+            return null;
+        }
+        return thumbnail;
+    }
+}
@@ -0,0 +1,129 @@
+package com.kbeanie.multipicker.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Unique names for the files written by the library.
+ * <p/>
+ * A name which is taken gets a counter, ex: IMG_0001.jpg, IMG_0001-1.jpg, IMG_0001-2.jpg. The last
+ * counter of every name is kept for each directory, so the next free name is known right away
+ * instead of being looked for one file at a time. A directory is listed once, the first time a
+ * name is needed in it. Names are reserved by creating the empty file, so they are never given
+ * twice, even if other apps write to the directory too.
+ */
+public final class FileNameIndex {
+    // Longer counters weren't written by us, and wouldn't fit in an int
+    private final static int MAX_COUNTER_DIGITS = 9;
+
+    private static FileNameIndex instance;
+
+    // Last counter used for each name, by directory
+    private final Map<String, Map<String, Integer>> directories = new HashMap<>();
+
+    private FileNameIndex() {
+
+    }
+
+    public static synchronized FileNameIndex getInstance() {
+        if (instance == null) {
+            instance = new FileNameIndex();
+        }
+        return instance;
+    }
+
+    /**
+     * Create an empty file with the name, or with the name and the next free counter if it is taken.
+     *
+     * @return The created file
+     */
+    public synchronized File reserve(File directory, String fileName) throws IOException {
+        Map<String, Integer> counters = getCounters(directory);
+        Integer last = counters.get(fileName);
+        int counter = last == null ? 0 : last + 1;
+        while (true) {
+            File file = new File(directory, getName(fileName, counter));
+            if (file.createNewFile()) {
+                counters.put(fileName, counter);
+                return file;
+            }
+            // Written by someone else since the directory was listed
+            counter++;
+        }
+    }
+
+    /**
+     * Forget the names of all the directories, they are listed again when needed
+     */
+    public synchronized void clear() {
+        directories.clear();
+    }
+
+    /**
+     * @param counter 0 for the name itself
+     */
+    static String getName(String fileName, int counter) {
+        if (counter == 0) {
+            return fileName;
+        }
+        int indexOfDot = fileName.lastIndexOf(".");
+        if (indexOfDot != -1) {
+            return fileName.substring(0, indexOfDot) + "-" + counter + fileName.substring(indexOfDot);
+        }
+        return fileName + "(" + counter + ")";
+    }
+
+    private Map<String, Integer> getCounters(File directory) {
+        String key = directory.getAbsolutePath();
+        Map<String, Integer> counters = directories.get(key);
+        if (counters == null) {
+            counters = new HashMap<>();
+            String[] names = directory.list();
+            if (names != null) {
+                for (String name : names) {
+                    index(counters, name);
+                }
+            }
+            directories.put(key, counters);
+        }
+        return counters;
+    }
+
+    // Record the name, and the counter it may have
+    private static void index(Map<String, Integer> counters, String name) {
+        update(counters, name, 0);
+        int indexOfDot = name.lastIndexOf(".");
+        int start;
+        int end;
+        String fileName;
+        if (indexOfDot != -1) {
+            start = name.lastIndexOf("-", indexOfDot) + 1;
+            end = indexOfDot;
+            fileName = start == 0 ? null : name.substring(0, start - 1) + name.substring(indexOfDot);
+        } else if (name.endsWith(")")) {
+            start = name.lastIndexOf("(") + 1;
+            end = name.length() - 1;
+            fileName = start == 0 ? null : name.substring(0, start - 1);
+        } else {
+            return;
+        }
+        if (fileName == null || end <= start || end - start > MAX_COUNTER_DIGITS) {
+            return;
+        }
+        for (int i = start; i < end; i++) {
+            if (name.charAt(i) < '0' || name.charAt(i) > '9') {
+                return;
+            }
+        }
+        update(counters, fileName, Integer.parseInt(name.substring(start, end)));
+    }
+
+    private static void update(Map<String, Integer> counters, String fileName, int counter) {
+        Integer last = counters.get(fileName);
+        if (last == null || last < counter) {
+            counters.put(fileName, counter);
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package com.kbeanie.multipicker.utils;
+
+/**
+ * Search for the largest encoding of an image which fits in a max file size.
+ * <p/>
+ * The quality is searched first, by halves, starting at the max quality since most images fit at
+ * once or not by much, then the min quality. If none fits, the dimensions are stepped down from the
+ * smallest size seen and the quality is searched again. Lossless formats have no quality to search,
+ * only the dimensions.
+ * <p/>
+ * The caller encodes at {@link #getScale()} and {@link #getQuality()} while {@link #nextDimension()}
+ * and {@link #nextQuality()} return true, and hands the size to {@link #report(long)}.
+ */
+public final class FileSizeSearch {
+    public final static int MIN_QUALITY = 10;
+    private final static int MAX_QUALITY_STEPS = 6;
+    private final static int MAX_DIMENSION_STEPS = 4;
+
+    private final long maxBytes;
+    private final int maxQuality;
+    private final boolean lossless;
+
+    private int dimensionSteps;
+    private float scale = 1;
+    private long smallest = Long.MAX_VALUE;
+
+    private int qualitySteps;
+    private int low;
+    private int high;
+    private int quality;
+
+    private long bestSize = -1;
+    private int bestQuality;
+    private float bestScale;
+
+    public FileSizeSearch(long maxBytes, int maxQuality, boolean lossless) {
+        this.maxBytes = maxBytes;
+        this.maxQuality = maxQuality;
+        this.lossless = lossless;
+    }
+
+    /**
+     * @return false once an encoding fits, or the dimensions can't be stepped down any more
+     */
+    public boolean nextDimension() {
+        if (fits() || dimensionSteps == MAX_DIMENSION_STEPS) {
+            return false;
+        }
+        if (dimensionSteps > 0) {
+            // The size goes with the number of pixels, aim a bit below the budget
+            scale *= Math.max(0.5f, Math.min(0.9f, (float) Math.sqrt(maxBytes / (double) smallest) * 0.95f));
+        }
+        dimensionSteps++;
+        qualitySteps = 0;
+        smallest = Long.MAX_VALUE;
+        // Below the min quality only if the max quality already is
+        low = lossless ? maxQuality : Math.min(MIN_QUALITY, maxQuality);
+        high = maxQuality;
+        return true;
+    }
+
+    /**
+     * @return false once the quality search for the current dimensions is over
+     */
+    public boolean nextQuality() {
+        if (qualitySteps == MAX_QUALITY_STEPS || low > high) {
+            return false;
+        }
+        if (qualitySteps == 0) {
+            quality = high;
+        } else if (qualitySteps == 1) {
+            // If the min quality doesn't fit either, there is nothing to search
+            quality = low;
+        } else {
+            quality = (low + high) / 2;
+        }
+        qualitySteps++;
+        return true;
+    }
+
+    /**
+     * @param size Bytes of the encoding at the current scale and quality
+     * @return true if it is the best so far, and should be kept
+     */
+    public boolean report(long size) {
+        smallest = Math.min(smallest, size);
+        boolean fits = size <= maxBytes;
+        // Each fit is at a higher quality than the last one, until then keep the smallest
+        boolean best = fits || (!fits() && (bestSize < 0 || size < bestSize));
+        if (best) {
+            bestSize = size;
+            bestQuality = quality;
+            bestScale = scale;
+        }
+        if (fits) {
+            low = quality + 1;
+        } else {
+            high = quality - 1;
+        }
+        return best;
+    }
+
+    /**
+     * Scale of the dimensions to encode at, 1 for the full size
+     */
+    public float getScale() {
+        return scale;
+    }
+
+    /**
+     * Quality to encode at
+     */
+    public int getQuality() {
+        return quality;
+    }
+
+    /**
+     * @return True if the best encoding fits in the max size
+     */
+    public boolean fits() {
+        return bestSize >= 0 && bestSize <= maxBytes;
+    }
+
+    public long getBestSize() {
+        return bestSize;
+    }
+
+    public int getBestQuality() {
+        return bestQuality;
+    }
+
+    public float getBestScale() {
+        return bestScale;
+    }
+}
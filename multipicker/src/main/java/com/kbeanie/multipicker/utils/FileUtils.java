@@ -9,6 +9,8 @@ import android.os.Environment;
 import android.support.v4.content.ContextCompat;
 import android.util.Log;
 
+import com.kbeanie.multipicker.api.ChecksumAlgorithm;
+import com.kbeanie.multipicker.api.ProcessingHandle;
 import com.kbeanie.multipicker.api.exceptions.PickerException;
 
 import java.io.File;
@@ -17,7 +19,10 @@ import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 
 import storage.StoragePreferences;
 
@@ -27,6 +32,9 @@ import storage.StoragePreferences;
 public class FileUtils {
     private final static String TAG = FileUtils.class.getSimpleName();
 
+    // Bytes handed to the kernel per transferTo call, cancellation is checked in between
+    private final static long TRANSFER_CHUNK_SIZE = 8 * 1024 * 1024;
+
     public static String getExternalFilesDirectory(String type, Context context) throws PickerException {
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
             boolean permissionGranted = checkForExternalStorageRuntimePermission(context);
@@ -109,8 +117,33 @@ public class FileUtils {
         copyFile(source, destination, true);
     }
 
+    /**
+     * @param handle Copy stops with an {@link InterruptedIOException} once this is cancelled. Can be null.
+     */
+    public static void copyFile(File source, File destination, ProcessingHandle handle) throws IOException {
+        copyFile(source, destination, true, handle);
+    }
+
+    /**
+     * @param handle    Copy stops with an {@link InterruptedIOException} once this is cancelled. Can be null.
+     * @param inspector Sees the copied bytes. Can be null.
+     */
+    public static void copyFile(File source, File destination, ProcessingHandle handle, CopyInspector inspector) throws IOException {
+        copyFile(source, destination, true, handle, inspector);
+    }
+
     public static void copyFile(File srcFile, File destFile,
                                 boolean preserveFileDate) throws IOException {
+        copyFile(srcFile, destFile, preserveFileDate, null);
+    }
+
+    public static void copyFile(File srcFile, File destFile,
+                                boolean preserveFileDate, ProcessingHandle handle) throws IOException {
+        copyFile(srcFile, destFile, preserveFileDate, handle, null);
+    }
+
+    public static void copyFile(File srcFile, File destFile, boolean preserveFileDate,
+                                ProcessingHandle handle, CopyInspector inspector) throws IOException {
         if (srcFile == null) {
             throw new NullPointerException("Source must not be null");
         }
@@ -134,10 +167,27 @@ public class FileUtils {
         if (destFile.exists() && destFile.canWrite() == false) {
             throw new IOException("Destination '" + destFile + "' exists but is read-only");
         }
-        doCopyFile(srcFile, destFile, preserveFileDate);
+        doCopyFile(srcFile, destFile, preserveFileDate, handle, inspector);
+    }
+
+    /**
+     * Moves the file with a rename when both are on the same file system. Otherwise, the file is
+     * copied and the source is deleted afterwards.
+     *
+     * @param handle Copy stops with an {@link InterruptedIOException} once this is cancelled. Can be null.
+     */
+    public static void moveFile(File srcFile, File destFile, ProcessingHandle handle) throws IOException {
+        if (srcFile.renameTo(destFile)) {
+            return;
+        }
+        copyFile(srcFile, destFile, true, handle);
+        if (!srcFile.delete()) {
+            Log.w(TAG, "moveFile: Couldn't delete " + srcFile + " after copying it");
+        }
     }
 
-    private static void doCopyFile(File srcFile, File destFile, boolean preserveFileDate) throws IOException {
+    private static void doCopyFile(File srcFile, File destFile, boolean preserveFileDate,
+                                   ProcessingHandle handle, CopyInspector inspector) throws IOException {
         if (destFile.exists() && destFile.isDirectory()) {
             throw new IOException("Destination '" + destFile + "' exists but is a directory");
         }
@@ -146,19 +196,20 @@ public class FileUtils {
         try {
             FileOutputStream output = new FileOutputStream(destFile);
             try {
-                copy(input, output);
+                // The number of bytes copied tells if the copy is complete, no need to look at both files again
+                long expected = input.getChannel().size();
+                long copied = copyLarge(input.getChannel(), output.getChannel(), handle, inspector);
+                if (copied != expected) {
+                    throw new IOException("Failed to copy full contents from '" +
+                            srcFile + "' to '" + destFile + "'");
+                }
             } finally {
-                output.flush();
                 output.close();
             }
         } finally {
             input.close();
         }
 
-        if (srcFile.length() != destFile.length()) {
-            throw new IOException("Failed to copy full contents from '" +
-                    srcFile + "' to '" + destFile + "'");
-        }
         if (preserveFileDate) {
             destFile.setLastModified(srcFile.lastModified());
         }
@@ -174,16 +225,192 @@ public class FileUtils {
 
     public static long copyLarge(InputStream input, OutputStream output)
             throws IOException {
-        byte[] buffer = new byte[2048];
+        return copyLarge(input, output, null);
+    }
+
+    /**
+     * @param handle Copy stops with an {@link InterruptedIOException} once this is cancelled. Can be null.
+     */
+    public static long copyLarge(InputStream input, OutputStream output, ProcessingHandle handle)
+            throws IOException {
+        return copyLarge(input, output, handle, null);
+    }
+
+    /**
+     * @param handle    Copy stops with an {@link InterruptedIOException} once this is cancelled. Can be null.
+     * @param inspector Sees the copied bytes. Can be null.
+     */
+    public static long copyLarge(InputStream input, OutputStream output, ProcessingHandle handle,
+                                 CopyInspector inspector) throws IOException {
+        byte[] buffer = BufferPool.getInstance().acquire();
+        try {
+            long count = 0;
+            int n = 0;
+            while (-1 != (n = input.read(buffer))) {
+                checkCancelled(handle, count);
+                output.write(buffer, 0, n);
+                if (inspector != null) {
+                    inspector.update(buffer, 0, n);
+                }
+                count += n;
+            }
+            return count;
+        } finally {
+            BufferPool.getInstance().release(buffer);
+        }
+    }
+
+    /**
+     * Copies from the current position of the input channel to its end. The data is moved with
+     * {@link FileChannel#transferTo(long, long, java.nio.channels.WritableByteChannel)}, so it doesn't
+     * pass through the Java heap. Whatever can't be transferred that way, like the data of a pipe, is
+     * copied through a direct buffer from the {@link BufferPool}.
+     *
+     * @param handle Copy stops with an {@link InterruptedIOException} once this is cancelled. Can be null.
+     * @return Number of bytes copied
+     */
+    public static long copyLarge(FileChannel input, FileChannel output, ProcessingHandle handle)
+            throws IOException {
+        return copyLarge(input, output, handle, null);
+    }
+
+    /**
+     * Same as {@link #copyLarge(FileChannel, FileChannel, ProcessingHandle)}, with the bytes shown to
+     * the inspector on the way. Only the first bytes are looked at, unless a checksum is needed. In that
+     * case, the data goes through the Java heap.
+     *
+     * @param inspector Can be null
+     */
+    public static long copyLarge(FileChannel input, FileChannel output, ProcessingHandle handle,
+                                 CopyInspector inspector) throws IOException {
+        if (inspector == null) {
+            return transfer(input, output, handle);
+        }
+        if (inspector.hasChecksum()) {
+            byte[] array = BufferPool.getInstance().acquire();
+            try {
+                ByteBuffer buffer = ByteBuffer.wrap(array);
+                long count = 0;
+                while (input.read(buffer) != -1) {
+                    checkCancelled(handle, count);
+                    buffer.flip();
+                    inspector.update(array, 0, buffer.limit());
+                    count += writeFully(output, buffer);
+                    buffer.clear();
+                }
+                return count;
+            } finally {
+                BufferPool.getInstance().release(array);
+            }
+        }
+        ByteBuffer header = ByteBuffer.allocate(CopyInspector.HEADER_LENGTH);
+        while (header.hasRemaining() && input.read(header) != -1) {
+            // Reads from a pipe may come in pieces
+        }
+        header.flip();
+        inspector.update(header.array(), 0, header.limit());
+        long count = writeFully(output, header);
+        long transferred = transfer(input, output, handle);
+        inspector.skip(transferred);
+        return count + transferred;
+    }
+
+    /**
+     * Reads the file once, to compute what the inspector needs.
+     *
+     * @param handle Reading stops with an {@link InterruptedIOException} once this is cancelled. Can be null.
+     */
+    public static void inspect(File file, CopyInspector inspector, ProcessingHandle handle) throws IOException {
+        FileInputStream input = new FileInputStream(file);
+        byte[] buffer = BufferPool.getInstance().acquire();
+        try {
+            int n;
+            while (-1 != (n = input.read(buffer))) {
+                checkCancelled(handle, inspector.getSize());
+                inspector.update(buffer, 0, n);
+            }
+        } finally {
+            BufferPool.getInstance().release(buffer);
+            input.close();
+        }
+    }
+
+    /**
+     * Identity of the content of a file, the same for all its copies wherever they are: its size and
+     * a CRC32 of all of its bytes. Reads the whole file, use
+     * {@link #getContentIdentity(long, int, String)} when the checksum is already known.
+     */
+    public static String getContentIdentity(File file) throws IOException {
+        CopyInspector inspector = new CopyInspector(ChecksumAlgorithm.CRC32);
+        inspect(file, inspector, null);
+        return getContentIdentity(inspector.getSize(), inspector.getChecksumAlgorithm(), inspector.getChecksum());
+    }
+
+    /**
+     * @param checksumAlgorithm One of {@link ChecksumAlgorithm}, other than NONE
+     * @param checksum          Of the whole content, as computed by {@link CopyInspector}
+     */
+    public static String getContentIdentity(long size, int checksumAlgorithm, String checksum) {
+        return size + "-" + checksumAlgorithm + "-" + checksum;
+    }
+
+    private static long transfer(FileChannel input, FileChannel output, ProcessingHandle handle)
+            throws IOException {
         long count = 0;
-        int n = 0;
-        while (-1 != (n = input.read(buffer))) {
-            output.write(buffer, 0, n);
-            count += n;
+        long position = -1;
+        long size = -1;
+        try {
+            position = input.position();
+            size = input.size();
+        } catch (IOException e) {
+            // Not seekable, only plain reads will work
+            position = -1;
+        }
+        while (position >= 0 && position < size) {
+            checkCancelled(handle, count);
+            long transferred = input.transferTo(position, Math.min(TRANSFER_CHUNK_SIZE, size - position), output);
+            if (transferred <= 0) {
+                break;
+            }
+            position += transferred;
+            count += transferred;
+        }
+        if (position >= 0) {
+            if (size > 0 && position >= size) {
+                return count;
+            }
+            // transferTo doesn't move the position of the input channel
+            input.position(position);
+        }
+
+        ByteBuffer buffer = BufferPool.getInstance().acquireDirect();
+        try {
+            while (input.read(buffer) != -1) {
+                checkCancelled(handle, count);
+                buffer.flip();
+                count += writeFully(output, buffer);
+                buffer.clear();
+            }
+        } finally {
+            BufferPool.getInstance().release(buffer);
         }
         return count;
     }
 
+    private static int writeFully(FileChannel output, ByteBuffer buffer) throws IOException {
+        int written = 0;
+        while (buffer.hasRemaining()) {
+            written += output.write(buffer);
+        }
+        return written;
+    }
+
+    private static void checkCancelled(ProcessingHandle handle, long count) throws InterruptedIOException {
+        if (handle != null && handle.isCancelled()) {
+            throw new InterruptedIOException("Copy cancelled after " + count + " bytes");
+        }
+    }
+
     public static String getInternalFileDirectory(Context context) {
         return context.getFilesDir().getAbsolutePath();
     }
@@ -0,0 +1,453 @@
+package com.kbeanie.multipicker.utils;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+
+/**
+ * Reads the format, dimensions and orientation of an image from its header, without decoding it.
+ * <p/>
+ * Knows about JPEG, PNG, WebP, GIF and HEIF/AVIF. Only the headers are read, the parts in between
+ * (JPEG segments, WebP chunks and HEIF boxes which don't matter) are skipped. No Android classes
+ * are used, so this works on the JVM too.
+ */
+public class ImageHeaderParser {
+    /**
+     * Same values as the ExifInterface.ORIENTATION_* constants
+     */
+    public final static int ORIENTATION_NORMAL = 1;
+    private final static int ORIENTATION_ROTATE_180 = 3;
+    private final static int ORIENTATION_ROTATE_90 = 6;
+    private final static int ORIENTATION_ROTATE_270 = 8;
+
+    // Larger EXIF or HEIF meta blocks are skipped, they don't hold anything we need
+    private final static int MAX_EXIF_LENGTH = 64 * 1024;
+    private final static int MAX_META_LENGTH = 256 * 1024;
+
+    private final static int TAG_ORIENTATION = 0x0112;
+    private final static int TAG_DATETIME = 0x0132;
+    private final static int TAG_THUMBNAIL_OFFSET = 0x0201;
+    private final static int TAG_THUMBNAIL_LENGTH = 0x0202;
+
+    private final static Charset ASCII = Charset.forName("US-ASCII");
+
+    private final InputStream stream;
+    private final ImageMetadata metadata = new ImageMetadata();
+    // Bytes read or skipped so far
+    private long position;
+
+    private ImageHeaderParser(InputStream stream) {
+        this.stream = stream;
+    }
+
+    /**
+     * @param stream Positioned at the start of the image. It is not closed.
+     * @return Metadata of the image, or null if the format isn't known or the header is broken
+     */
+    public static ImageMetadata parse(InputStream stream) throws IOException {
+        ImageHeaderParser parser = new ImageHeaderParser(stream);
+        try {
+            return parser.parse() ? parser.metadata : null;
+        } catch (EOFException e) {
+            // Truncated header
+            return null;
+        }
+    }
+
+    private boolean parse() throws IOException {
+        byte[] magic = new byte[12];
+        readFully(magic, 0, 2);
+        if ((magic[0] & 0xff) == 0xff && (magic[1] & 0xff) == 0xd8) {
+            return parseJpeg();
+        }
+        readFully(magic, 2, 2);
+        if ((magic[0] & 0xff) == 0x89 && magic[1] == 'P' && magic[2] == 'N' && magic[3] == 'G') {
+            return parsePng();
+        }
+        readFully(magic, 4, 2);
+        if (magic[0] == 'G' && magic[1] == 'I' && magic[2] == 'F' && magic[3] == '8') {
+            return parseGif();
+        }
+        readFully(magic, 6, 6);
+        if (magic[0] == 'R' && magic[1] == 'I' && magic[2] == 'F' && magic[3] == 'F'
+                && magic[8] == 'W' && magic[9] == 'E' && magic[10] == 'B' && magic[11] == 'P') {
+            return parseWebp();
+        }
+        if (magic[4] == 'f' && magic[5] == 't' && magic[6] == 'y' && magic[7] == 'p') {
+            long size = ((magic[0] & 0xffL) << 24) | ((magic[1] & 0xff) << 16) | ((magic[2] & 0xff) << 8) | (magic[3] & 0xff);
+            String brand = new String(magic, 8, 4, ASCII);
+            return parseHeif(brand, size);
+        }
+        return false;
+    }
+
+    private boolean parseJpeg() throws IOException {
+        metadata.mimeType = "image/jpeg";
+        while (true) {
+            int marker = readUInt8();
+            if (marker != 0xff) {
+                return false;
+            }
+            // Any number of 0xff can pad the markers
+            while (marker == 0xff) {
+                marker = readUInt8();
+            }
+            if (marker == 0xd8 || marker == 0x01 || (marker >= 0xd0 && marker <= 0xd7)) {
+                continue;
+            }
+            if (marker == 0xd9 || marker == 0xda) {
+                // End of image or start of the scan, there should have been a frame header before
+                return false;
+            }
+            int length = readUInt16() - 2;
+            if (length < 0) {
+                return false;
+            }
+            if (marker == 0xe1 && length <= MAX_EXIF_LENGTH) {
+                long segmentPosition = position;
+                byte[] segment = new byte[length];
+                readFully(segment, 0, length);
+                if (length > 6 && segment[0] == 'E' && segment[1] == 'x' && segment[2] == 'i'
+                        && segment[3] == 'f' && segment[4] == 0 && segment[5] == 0) {
+                    parseTiff(segment, 6, segmentPosition);
+                }
+            } else if (isStartOfFrame(marker) && length >= 5) {
+                readUInt8(); // Precision
+                metadata.height = readUInt16();
+                metadata.width = readUInt16();
+                // EXIF always comes before the frame, nothing else to look for
+                return true;
+            } else {
+                skip(length);
+            }
+        }
+    }
+
+    private static boolean isStartOfFrame(int marker) {
+        // 0xc4 (DHT), 0xc8 (JPG) and 0xcc (DAC) are in the same range but aren't frames
+        return marker >= 0xc0 && marker <= 0xcf && marker != 0xc4 && marker != 0xc8 && marker != 0xcc;
+    }
+
+    private boolean parsePng() throws IOException {
+        metadata.mimeType = "image/png";
+        skip(4); // End of the signature
+        skip(4); // Chunk length
+        byte[] type = new byte[4];
+        readFully(type, 0, 4);
+        if (!"IHDR".equals(new String(type, ASCII))) {
+            return false;
+        }
+        metadata.width = readInt32();
+        metadata.height = readInt32();
+        return true;
+    }
+
+    private boolean parseGif() throws IOException {
+        metadata.mimeType = "image/gif";
+        // Logical screen size
+        metadata.width = readUInt16LE();
+        metadata.height = readUInt16LE();
+        return true;
+    }
+
+    private boolean parseWebp() throws IOException {
+        metadata.mimeType = "image/webp";
+        String chunk = readFourCC();
+        long size = readUInt32LE();
+        if ("VP8 ".equals(chunk)) {
+            // Frame tag, then the start code 9d 01 2a
+            skip(3);
+            if (readUInt8() != 0x9d || readUInt8() != 0x01 || readUInt8() != 0x2a) {
+                return false;
+            }
+            metadata.width = readUInt16LE() & 0x3fff;
+            metadata.height = readUInt16LE() & 0x3fff;
+            return true;
+        } else if ("VP8L".equals(chunk)) {
+            if (readUInt8() != 0x2f) {
+                return false;
+            }
+            long bits = readUInt32LE();
+            metadata.width = (int) (bits & 0x3fff) + 1;
+            metadata.height = (int) ((bits >> 14) & 0x3fff) + 1;
+            return true;
+        } else if ("VP8X".equals(chunk)) {
+            int flags = readUInt8();
+            skip(3);
+            metadata.width = readUInt24LE() + 1;
+            metadata.height = readUInt24LE() + 1;
+            skip(size - 10 + (size & 1));
+            if ((flags & 0x08) != 0) {
+                findWebpExif();
+            }
+            return true;
+        }
+        return false;
+    }
+
+    // The EXIF chunk comes after the image data, the chunks in between are skipped
+    private void findWebpExif() throws IOException {
+        try {
+            while (true) {
+                String chunk = readFourCC();
+                long size = readUInt32LE();
+                if ("EXIF".equals(chunk)) {
+                    if (size <= MAX_EXIF_LENGTH) {
+                        long exifPosition = position;
+                        byte[] exif = new byte[(int) size];
+                        readFully(exif, 0, exif.length);
+                        // Some encoders keep the JPEG style prefix
+                        boolean prefixed = size > 6 && exif[0] == 'E' && exif[1] == 'x' && exif[4] == 0;
+                        parseTiff(exif, prefixed ? 6 : 0, exifPosition);
+                    }
+                    return;
+                }
+                skip(size + (size & 1));
+            }
+        } catch (EOFException e) {
+            // No EXIF after all, the dimensions are enough
+        }
+    }
+
+    private boolean parseHeif(String brand, long ftypSize) throws IOException {
+        if ("avif".equals(brand) || "avis".equals(brand)) {
+            metadata.mimeType = "image/avif";
+        } else if ("heic".equals(brand) || "heix".equals(brand) || "heim".equals(brand) || "heis".equals(brand)) {
+            metadata.mimeType = "image/heic";
+        } else if ("mif1".equals(brand) || "msf1".equals(brand)) {
+            metadata.mimeType = "image/heif";
+        } else {
+            // Some other ISO media file, most likely a video
+            return false;
+        }
+        skip(ftypSize - 12);
+        while (true) {
+            long size = readUInt32();
+            String type = readFourCC();
+            long headerSize = 8;
+            if (size == 1) {
+                size = readInt64();
+                headerSize = 16;
+            } else if (size == 0) {
+                return false;
+            }
+            if ("meta".equals(type)) {
+                if (size - headerSize > MAX_META_LENGTH || size < headerSize + 4) {
+                    return false;
+                }
+                byte[] meta = new byte[(int) (size - headerSize)];
+                readFully(meta, 0, meta.length);
+                // Full box: version and flags come first
+                parseHeifBoxes(meta, 4, meta.length);
+                return metadata.width > 0 && metadata.height > 0;
+            }
+            skip(size - headerSize);
+        }
+    }
+
+    /**
+     * Looks for the image spatial extents (ispe) and rotation (irot) properties in iprp/ipco.
+     * The primary image is taken to be the largest one, thumbnails and grid tiles are smaller.
+     */
+    private void parseHeifBoxes(byte[] data, int offset, int end) {
+        while (offset + 8 <= end) {
+            long size = getUInt32(data, offset, false);
+            String type = new String(data, offset + 4, 4, ASCII);
+            if (size < 8 || offset + size > end) {
+                return;
+            }
+            int body = offset + 8;
+            int boxEnd = (int) (offset + size);
+            if ("iprp".equals(type) || "ipco".equals(type)) {
+                parseHeifBoxes(data, body, boxEnd);
+            } else if ("ispe".equals(type) && body + 12 <= boxEnd) {
+                int width = (int) getUInt32(data, body + 4, false);
+                int height = (int) getUInt32(data, body + 8, false);
+                if ((long) width * height > (long) metadata.width * metadata.height) {
+                    metadata.width = width;
+                    metadata.height = height;
+                }
+            } else if ("irot".equals(type) && body < boxEnd && metadata.orientation == ORIENTATION_NORMAL) {
+                // Counter clockwise, in steps of 90 degrees
+                switch (data[body] & 0x03) {
+                    case 1:
+                        metadata.orientation = ORIENTATION_ROTATE_270;
+                        break;
+                    case 2:
+                        metadata.orientation = ORIENTATION_ROTATE_180;
+                        break;
+                    case 3:
+                        metadata.orientation = ORIENTATION_ROTATE_90;
+                        break;
+                }
+            }
+            offset = boxEnd;
+        }
+    }
+
+    /**
+     * IFD0 has the orientation and the date, IFD1 the embedded thumbnail.
+     *
+     * @param position Where the data starts in the file
+     */
+    private void parseTiff(byte[] data, int start, long position) {
+        if (start + 8 > data.length) {
+            return;
+        }
+        boolean littleEndian;
+        if (data[start] == 'I' && data[start + 1] == 'I') {
+            littleEndian = true;
+        } else if (data[start] == 'M' && data[start + 1] == 'M') {
+            littleEndian = false;
+        } else {
+            return;
+        }
+        if (getUInt16(data, start + 2, littleEndian) != 42) {
+            return;
+        }
+        long ifd = start + getUInt32(data, start + 4, littleEndian);
+        if (ifd + 2 > data.length) {
+            return;
+        }
+        int entries = getUInt16(data, (int) ifd, littleEndian);
+        for (int i = 0; i < entries; i++) {
+            long entry = ifd + 2 + i * 12L;
+            if (entry + 12 > data.length) {
+                return;
+            }
+            int tag = getUInt16(data, (int) entry, littleEndian);
+            if (tag == TAG_ORIENTATION) {
+                int orientation = getUInt16(data, (int) entry + 8, littleEndian);
+                if (orientation >= 1 && orientation <= 8) {
+                    metadata.orientation = orientation;
+                }
+            } else if (tag == TAG_DATETIME) {
+                long count = getUInt32(data, (int) entry + 4, littleEndian);
+                long value = start + getUInt32(data, (int) entry + 8, littleEndian);
+                if (count > 4 && value + count <= data.length) {
+                    // Ends with a NUL, which trim() takes care of
+                    metadata.dateTime = new String(data, (int) value, (int) count, ASCII).trim();
+                }
+            }
+        }
+        long next = ifd + 2 + entries * 12L;
+        if (next + 4 <= data.length) {
+            long ifd1 = getUInt32(data, (int) next, littleEndian);
+            if (ifd1 != 0) {
+                parseThumbnail(data, start, start + ifd1, littleEndian, position);
+            }
+        }
+    }
+
+    // Offsets are checked as longs, a bogus one would overflow an int and pass the bounds checks
+    private void parseThumbnail(byte[] data, int start, long ifd, boolean littleEndian, long position) {
+        if (ifd + 2 > data.length) {
+            return;
+        }
+        long offset = -1;
+        long length = 0;
+        int entries = getUInt16(data, (int) ifd, littleEndian);
+        for (int i = 0; i < entries; i++) {
+            long entry = ifd + 2 + i * 12L;
+            if (entry + 12 > data.length) {
+                return;
+            }
+            int tag = getUInt16(data, (int) entry, littleEndian);
+            if (tag == TAG_THUMBNAIL_OFFSET) {
+                offset = start + getUInt32(data, (int) entry + 8, littleEndian);
+            } else if (tag == TAG_THUMBNAIL_LENGTH) {
+                length = getUInt32(data, (int) entry + 8, littleEndian);
+            }
+        }
+        // The thumbnail has to be inside the EXIF block
+        if (offset >= 0 && length > 0 && offset + length <= data.length) {
+            metadata.thumbnailOffset = position + offset;
+            metadata.thumbnailLength = (int) length;
+        }
+    }
+
+    private static int getUInt16(byte[] data, int offset, boolean littleEndian) {
+        int b0 = data[offset] & 0xff;
+        int b1 = data[offset + 1] & 0xff;
+        return littleEndian ? (b1 << 8) | b0 : (b0 << 8) | b1;
+    }
+
+    private static long getUInt32(byte[] data, int offset, boolean littleEndian) {
+        long high = getUInt16(data, offset, littleEndian);
+        long low = getUInt16(data, offset + 2, littleEndian);
+        return littleEndian ? (low << 16) | high : (high << 16) | low;
+    }
+
+    private int readUInt8() throws IOException {
+        int b = stream.read();
+        if (b < 0) {
+            throw new EOFException();
+        }
+        position++;
+        return b;
+    }
+
+    private int readUInt16() throws IOException {
+        return (readUInt8() << 8) | readUInt8();
+    }
+
+    private int readUInt16LE() throws IOException {
+        return readUInt8() | (readUInt8() << 8);
+    }
+
+    private int readUInt24LE() throws IOException {
+        return readUInt8() | (readUInt8() << 8) | (readUInt8() << 16);
+    }
+
+    private int readInt32() throws IOException {
+        return (readUInt16() << 16) | readUInt16();
+    }
+
+    private long readUInt32() throws IOException {
+        return readInt32() & 0xffffffffL;
+    }
+
+    private long readUInt32LE() throws IOException {
+        return (readUInt16LE() | ((long) readUInt16LE() << 16)) & 0xffffffffL;
+    }
+
+    private long readInt64() throws IOException {
+        return (readUInt32() << 32) | readUInt32();
+    }
+
+    private String readFourCC() throws IOException {
+        byte[] fourCC = new byte[4];
+        readFully(fourCC, 0, 4);
+        return new String(fourCC, ASCII);
+    }
+
+    private void readFully(byte[] buffer, int offset, int length) throws IOException {
+        while (length > 0) {
+            int read = stream.read(buffer, offset, length);
+            if (read < 0) {
+                throw new EOFException();
+            }
+            offset += read;
+            length -= read;
+            position += read;
+        }
+    }
+
+    private void skip(long count) throws IOException {
+        if (count < 0) {
+            throw new EOFException();
+        }
+        while (count > 0) {
+            long skipped = stream.skip(count);
+            if (skipped <= 0) {
+                // skip() may give up before the end, read to find out
+                readUInt8();
+                skipped = 1;
+            } else {
+                position += skipped;
+            }
+            count -= skipped;
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package com.kbeanie.multipicker.utils;
+
+import android.graphics.BitmapFactory;
+import android.media.ExifInterface;
+
+import java.io.BufferedInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+
+/**
+ * Format, dimensions and orientation of an image, read in a single pass over its header.
+ * <p/>
+ * {@link ImageHeaderParser} knows the common formats. For the others, the dimensions come from
+ * decoding the bounds of the file, and only the orientation and date from the EXIF tags: the
+ * EXIF dimensions are often those of the picture before it was edited or cropped.
+ */
+public class ImageMetadata {
+    private final static String TAG = ImageMetadata.class.getSimpleName();
+
+    String mimeType;
+    int width;
+    int height;
+    int orientation = ExifInterface.ORIENTATION_NORMAL;
+    String dateTime;
+    long thumbnailOffset = -1;
+    int thumbnailLength;
+
+    ImageMetadata() {
+
+    }
+
+    public static ImageMetadata read(String path) throws IOException {
+        BufferedInputStream header = new BufferedInputStream(new FileInputStream(path));
+        try {
+            ImageMetadata metadata = ImageHeaderParser.parse(header);
+            if (metadata != null && metadata.width > 0 && metadata.height > 0) {
+                return metadata;
+            }
+        } finally {
+            header.close();
+        }
+
+        ImageMetadata metadata = new ImageMetadata();
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BufferedInputStream stream = new BufferedInputStream(new FileInputStream(path));
+        try {
+            BitmapFactory.decodeStream(stream, null, options);
+        } finally {
+            stream.close();
+        }
+        metadata.width = options.outWidth;
+        metadata.height = options.outHeight;
+        metadata.mimeType = options.outMimeType;
+        try {
+            ExifInterface exif = new ExifInterface(path);
+            metadata.orientation = exif.getAttributeInt(ExifInterface.TAG_ORIENTATION,
+                    ExifInterface.ORIENTATION_NORMAL);
+            metadata.dateTime = exif.getAttribute(ExifInterface.TAG_DATETIME);
+        } catch (IOException e) {
+            // Not every format has EXIF tags
+            LogUtils.d(TAG, "read: No EXIF for " + path + ": " + e.getMessage());
+        }
+        return metadata;
+    }
+
+    /**
+     * @return Mime type of the image, or null if unknown
+     */
+    public String getMimeType() {
+        return mimeType;
+    }
+
+    /**
+     * Width as stored in the file, before applying the orientation
+     */
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * Height as stored in the file, before applying the orientation
+     */
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * One of the ExifInterface.ORIENTATION_* values
+     */
+    public int getOrientation() {
+        return orientation;
+    }
+
+    /**
+     * Degrees the image has to be rotated by to be upright
+     */
+    public int getRotation() {
+        switch (orientation) {
+            case ExifInterface.ORIENTATION_ROTATE_270:
+                return -90;
+            case ExifInterface.ORIENTATION_ROTATE_180:
+                return 180;
+            case ExifInterface.ORIENTATION_ROTATE_90:
+                return 90;
+        }
+        return 0;
+    }
+
+    /**
+     * @return True if the EXIF tags have an embedded JPEG thumbnail. Only known for the formats
+     * {@link ImageHeaderParser} reads.
+     */
+    public boolean hasThumbnail() {
+        return thumbnailOffset >= 0 && thumbnailLength > 0;
+    }
+
+    /**
+     * Position of the embedded thumbnail in the file
+     */
+    public long getThumbnailOffset() {
+        return thumbnailOffset;
+    }
+
+    public int getThumbnailLength() {
+        return thumbnailLength;
+    }
+
+    /**
+     * Date and time the image was taken, as written by the camera. Null if unknown.
+     */
+    public String getDateTime() {
+        return dateTime;
+    }
+}
@@ -0,0 +1,134 @@
+package com.kbeanie.multipicker.utils;
+
+import android.annotation.TargetApi;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.os.Build;
+
+import com.kbeanie.multipicker.api.ProcessingHandle;
+
+import java.io.IOException;
+
+/**
+ * Scales down images too large to be decoded in one piece, like panoramas and scanned documents.
+ * <p/>
+ * The image is read in horizontal bands with {@link BitmapRegionDecoder}, and each band is drawn
+ * into the target bitmap as soon as it is decoded. Whatever the size of the image, memory use
+ * never goes over the target bitmap plus one band.
+ */
+public class TiledDecoder {
+    private final static String TAG = TiledDecoder.class.getSimpleName();
+    private final static int BYTES_PER_PIXEL = 4;
+    /**
+     * Max size of one decoded band
+     */
+    public final static int BAND_BYTES = 4 * 1024 * 1024;
+
+    /**
+     * @return true if decoding the image with this sample size would need more memory than we want to spend on one bitmap
+     */
+    public static boolean isTooLarge(int width, int height, int sampleSize) {
+        long sampledWidth = (width + sampleSize - 1) / sampleSize;
+        long sampledHeight = (height + sampleSize - 1) / sampleSize;
+        return sampledWidth * sampledHeight * BYTES_PER_PIXEL > Runtime.getRuntime().maxMemory() / 8;
+    }
+
+    /**
+     * @param handle Decoding stops once this is cancelled. Can be null.
+     * @param pool   Where the band and target bitmaps come from. The band is given back. Can be null.
+     * @return Bitmap of exactly the target size, or null if the image can't be decoded by regions
+     */
+    @TargetApi(Build.VERSION_CODES.KITKAT)
+    public static Bitmap decode(String path, int targetWidth, int targetHeight,
+                                ProcessingHandle handle, BitmapPool pool) {
+        BitmapRegionDecoder decoder;
+        try {
+            decoder = BitmapRegionDecoder.newInstance(path, false);
+        } catch (IOException e) {
+            // Only JPEG, PNG and WebP (and HEIF on newer versions) can be decoded by regions
+            LogUtils.d(TAG, "decode: Not supported for " + path + ": " + e.getMessage());
+            return null;
+        }
+        Bitmap target = null;
+        Bitmap band = null;
+        try {
+            int width = decoder.getWidth();
+            int height = decoder.getHeight();
+            int sampleSize = BitmapUtils.getSampleSize(width, height, targetWidth, targetHeight);
+            int sampledWidth = (width + sampleSize - 1) / sampleSize;
+            // Rows of the source in one band, a multiple of the sample size so that bands line up
+            int bandRows = Math.max(1, BAND_BYTES / (sampledWidth * BYTES_PER_PIXEL)) * sampleSize;
+            LogUtils.d(TAG, "decode: " + width + "x" + height + " -> " + targetWidth + "x" + targetHeight
+                    + " sample: " + sampleSize + " band rows: " + bandRows);
+
+            target = pool != null ? pool.get(targetWidth, targetHeight, Bitmap.Config.ARGB_8888) : null;
+            if (target != null) {
+                target.reconfigure(targetWidth, targetHeight, Bitmap.Config.ARGB_8888);
+                target.eraseColor(Color.TRANSPARENT);
+            } else {
+                target = Bitmap.createBitmap(targetWidth, targetHeight, Bitmap.Config.ARGB_8888);
+            }
+            Canvas canvas = new Canvas(target);
+            Paint paint = new Paint(Paint.FILTER_BITMAP_FLAG);
+            float scaleY = targetHeight / (float) height;
+
+            BitmapFactory.Options options = new BitmapFactory.Options();
+            options.inSampleSize = sampleSize;
+            options.inMutable = true;
+            for (int top = 0; top < height; top += bandRows) {
+                if (handle != null && handle.isCancelled()) {
+                    if (pool != null) {
+                        pool.put(target);
+                    } else {
+                        target.recycle();
+                    }
+                    return null;
+                }
+                int bottom = Math.min(height, top + bandRows);
+                // Before KitKat, the reused bitmap has to be exactly the size of the region, which the last band isn't
+                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+                    if (band == null && pool != null) {
+                        band = pool.get(sampledWidth, (bandRows + sampleSize - 1) / sampleSize, Bitmap.Config.ARGB_8888);
+                    }
+                    options.inBitmap = band;
+                } else if (band != null) {
+                    band.recycle();
+                    band = null;
+                }
+                Bitmap decoded = decoder.decodeRegion(new Rect(0, top, width, bottom), options);
+                if (decoded == null) {
+                    continue;
+                }
+                band = decoded;
+                // The last band may be shorter, only the decoded part is drawn
+                Rect source = new Rect(0, 0, sampledWidth, (bottom - top + sampleSize - 1) / sampleSize);
+                source.right = Math.min(source.right, band.getWidth());
+                source.bottom = Math.min(source.bottom, band.getHeight());
+                canvas.drawBitmap(band, source, new RectF(0, top * scaleY, targetWidth, bottom * scaleY), paint);
+            }
+            return target;
+        } catch (RuntimeException e) {
+            // Thrown by the decoder for broken images or bitmaps it can't reuse
+            LogUtils.e(TAG, "decode: " + e.getMessage());
+            if (target != null) {
+                target.recycle();
+            }
+            return null;
+        } finally {
+            if (band != null) {
+                if (pool != null) {
+                    pool.put(band);
+                } else {
+                    band.recycle();
+                }
+            }
+            decoder.recycle();
+        }
+    }
+}
@@ -69,4 +69,23 @@ public class BitmapUtilsTestCase extends TestCase {
         Assert.assertEquals((int) ((800 / (float) 1200) * 300), dimensions[0]);
         Assert.assertEquals(300, dimensions[1]);
     }
+
+    public void testGetScaledDimensionsLargeBothTall() {
+        int imageWidth = 1000;
+        int imageHeight = 4000;
+        int maxWidth = 300;
+        int maxHeight = 300;
+
+        int[] dimensions = BitmapUtils.getScaledDimensions(imageWidth, imageHeight, maxWidth, maxHeight);
+        Assert.assertNotNull(dimensions);
+        Assert.assertEquals(75, dimensions[0]);
+        Assert.assertEquals(300, dimensions[1]);
+    }
+
+    public void testGetSampleSize() {
+        Assert.assertEquals(1, BitmapUtils.getSampleSize(300, 300, 300, 300));
+        Assert.assertEquals(4, BitmapUtils.getSampleSize(4000, 3000, 640, 480));
+        Assert.assertEquals(8, BitmapUtils.getSampleSize(4000, 3000, 320, 240));
+        Assert.assertEquals(1, BitmapUtils.getSampleSize(100, 100, 300, 300));
+    }
 }
@@ -0,0 +1,125 @@
+package com.kbeanie.multipicker;
+
+import com.kbeanie.multipicker.api.entity.ChosenImage;
+import com.kbeanie.multipicker.utils.EmbeddedThumbnail;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+import javax.imageio.ImageIO;
+
+/**
+ * The embedded thumbnail of a camera picture, when the picture is resized before the thumbnails
+ * are made.
+ */
+public class EmbeddedThumbnailTestCase extends TestCase {
+    private File source;
+    private File resized;
+    private byte[] thumbnail;
+
+    @Override
+    protected void setUp() throws Exception {
+        thumbnail = encode(160, 120);
+        source = File.createTempFile("multipicker-camera", ".jpg");
+        write(source, withThumbnail(encode(640, 480), thumbnail));
+        // Written again without EXIF tags, as Bitmap.compress does
+        resized = File.createTempFile("multipicker-camera-resized", ".jpg");
+        write(resized, encode(320, 240));
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        source.delete();
+        resized.delete();
+    }
+
+    public void testResizedImageUsesImportedThumbnail() throws IOException {
+        ChosenImage image = new ChosenImage();
+        image.setTempFile(source.getAbsolutePath());
+        image.setOriginalPath(resized.getAbsolutePath());
+
+        Assert.assertNull(EmbeddedThumbnail.read(image.getOriginalPath(), 96, 96));
+        Assert.assertEquals(source.getAbsolutePath(), EmbeddedThumbnail.getSource(image));
+        Assert.assertTrue(Arrays.equals(thumbnail, EmbeddedThumbnail.read(EmbeddedThumbnail.getSource(image), 96, 96)));
+    }
+
+    public void testImageNotResized() throws IOException {
+        ChosenImage image = new ChosenImage();
+        image.setOriginalPath(source.getAbsolutePath());
+
+        Assert.assertEquals(source.getAbsolutePath(), EmbeddedThumbnail.getSource(image));
+        Assert.assertNotNull(EmbeddedThumbnail.read(EmbeddedThumbnail.getSource(image), 96, 96));
+    }
+
+    public void testThumbnailSmallerThanAsked() throws IOException {
+        Assert.assertNull(EmbeddedThumbnail.read(source.getAbsolutePath(), 200, 150));
+    }
+
+    public void testThumbnailOfAnotherRatio() throws IOException {
+        write(source, withThumbnail(encode(640, 480), encode(160, 160)));
+        Assert.assertNull(EmbeddedThumbnail.read(source.getAbsolutePath(), 96, 96));
+    }
+
+    private static byte[] encode(int width, int height) throws IOException {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Assert.assertTrue(ImageIO.write(image, "jpg", out));
+        return out.toByteArray();
+    }
+
+    // APP1 segment with an empty IFD0, and IFD1 pointing at the thumbnail
+    private static byte[] withThumbnail(byte[] jpeg, byte[] thumbnail) throws IOException {
+        ByteArrayOutputStream tiff = new ByteArrayOutputStream();
+        tiff.write("MM".getBytes("US-ASCII"));
+        tiff.write(be(42, 2));
+        tiff.write(be(8, 4));
+        tiff.write(be(0, 2));
+        tiff.write(be(14, 4));
+        tiff.write(be(2, 2));
+        tiff.write(be(0x0201, 2));
+        tiff.write(be(4, 2));
+        tiff.write(be(1, 4));
+        tiff.write(be(14 + 2 + 24 + 4, 4));
+        tiff.write(be(0x0202, 2));
+        tiff.write(be(4, 2));
+        tiff.write(be(1, 4));
+        tiff.write(be(thumbnail.length, 4));
+        tiff.write(be(0, 4));
+        tiff.write(thumbnail);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(jpeg, 0, 2);
+        out.write(new byte[]{(byte) 0xff, (byte) 0xe1});
+        out.write(be(tiff.size() + 8, 2));
+        out.write("Exif".getBytes("US-ASCII"));
+        out.write(new byte[2]);
+        out.write(tiff.toByteArray());
+        out.write(jpeg, 2, jpeg.length - 2);
+        return out.toByteArray();
+    }
+
+    private static byte[] be(int value, int length) {
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[length - 1 - i] = (byte) (value >> (8 * i));
+        }
+        return bytes;
+    }
+
+    private static void write(File file, byte[] content) throws IOException {
+        OutputStream out = new FileOutputStream(file);
+        try {
+            out.write(content);
+        } finally {
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package com.kbeanie.multipicker;
+
+import com.kbeanie.multipicker.utils.FileNameIndex;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Names given for files which already exist.
+ */
+public class FileNameIndexTestCase extends TestCase {
+    private final static int CROWDED_FILES = 50;
+
+    private File directory;
+
+    @Override
+    protected void setUp() throws Exception {
+        directory = File.createTempFile("multipicker-names", "");
+        directory.delete();
+        directory.mkdir();
+        FileNameIndex.getInstance().clear();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    public void testCounterGoesBeforeExtension() throws IOException {
+        FileNameIndex index = FileNameIndex.getInstance();
+        Assert.assertEquals("IMG_0001.jpg", index.reserve(directory, "IMG_0001.jpg").getName());
+        Assert.assertEquals("IMG_0001-1.jpg", index.reserve(directory, "IMG_0001.jpg").getName());
+        Assert.assertEquals("IMG_0001-2.jpg", index.reserve(directory, "IMG_0001.jpg").getName());
+        Assert.assertEquals("notes", index.reserve(directory, "notes").getName());
+        Assert.assertEquals("notes(1)", index.reserve(directory, "notes").getName());
+    }
+
+    public void testExistingFilesAreIndexed() throws IOException {
+        new File(directory, "IMG_0001.jpg").createNewFile();
+        new File(directory, "IMG_0001-7.jpg").createNewFile();
+        new File(directory, "notes(3)").createNewFile();
+
+        FileNameIndex index = FileNameIndex.getInstance();
+        Assert.assertEquals("IMG_0001-8.jpg", index.reserve(directory, "IMG_0001.jpg").getName());
+        Assert.assertEquals("notes(4)", index.reserve(directory, "notes").getName());
+    }
+
+    public void testFilesWrittenByOthersAreSkipped() throws IOException {
+        FileNameIndex index = FileNameIndex.getInstance();
+        index.reserve(directory, "IMG_0001.jpg");
+        new File(directory, "IMG_0001-1.jpg").createNewFile();
+        Assert.assertEquals("IMG_0001-2.jpg", index.reserve(directory, "IMG_0001.jpg").getName());
+    }
+
+    public void testCrowdedDirectory() throws IOException {
+        FileNameIndex index = FileNameIndex.getInstance();
+        for (int i = 0; i < CROWDED_FILES; i++) {
+            index.reserve(directory, "IMG_0001.jpg");
+        }
+        File last = index.reserve(directory, "IMG_0001.jpg");
+        Assert.assertEquals("IMG_0001-" + CROWDED_FILES + ".jpg", last.getName());
+    }
+}
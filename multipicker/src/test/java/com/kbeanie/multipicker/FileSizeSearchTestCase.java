@@ -0,0 +1,95 @@
+package com.kbeanie.multipicker;
+
+import com.kbeanie.multipicker.utils.FileSizeSearch;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+/**
+ * Runs the search against a model encoder, where the size grows with the pixels and the quality.
+ */
+public class FileSizeSearchTestCase extends TestCase {
+    private final static long FULL_SIZE = 1000000;
+
+    private int encodes;
+
+    public void testFitsAtMaxQuality() {
+        FileSizeSearch search = new FileSizeSearch(FULL_SIZE, 90, false);
+        run(search, false);
+        Assert.assertTrue(search.fits());
+        Assert.assertEquals(90, search.getBestQuality());
+        Assert.assertEquals(1f, search.getBestScale());
+        Assert.assertEquals(1, encodes);
+    }
+
+    public void testHighestQualityWhichFits() {
+        long maxBytes = FULL_SIZE / 2;
+        FileSizeSearch search = new FileSizeSearch(maxBytes, 90, false);
+        run(search, false);
+        Assert.assertTrue(search.fits());
+        Assert.assertEquals(1f, search.getBestScale());
+        Assert.assertTrue(search.getBestSize() <= maxBytes);
+        // 4 halvings of 10..90 after the max and min quality get within a few steps of the best quality
+        Assert.assertTrue(size(1f, search.getBestQuality() + 6, false) > maxBytes);
+        Assert.assertTrue(encodes <= 6);
+    }
+
+    public void testDimensionsStepDown() {
+        long maxBytes = FULL_SIZE / 20;
+        FileSizeSearch search = new FileSizeSearch(maxBytes, 90, false);
+        run(search, false);
+        Assert.assertTrue(search.fits());
+        Assert.assertTrue(search.getBestScale() < 1f);
+        Assert.assertTrue(search.getBestSize() <= maxBytes);
+    }
+
+    public void testLosslessOnlyStepsDimensions() {
+        long maxBytes = FULL_SIZE / 3;
+        FileSizeSearch search = new FileSizeSearch(maxBytes, 90, true);
+        int steps = 0;
+        while (search.nextDimension()) {
+            steps++;
+            int qualities = 0;
+            while (search.nextQuality()) {
+                qualities++;
+                Assert.assertEquals(90, search.getQuality());
+                search.report(size(search.getScale(), search.getQuality(), true));
+            }
+            Assert.assertEquals(1, qualities);
+        }
+        Assert.assertTrue(steps > 1);
+        Assert.assertTrue(search.fits());
+    }
+
+    public void testMaxQualityBelowMinQuality() {
+        FileSizeSearch search = new FileSizeSearch(1, 5, false);
+        run(search, false);
+        Assert.assertFalse(search.fits());
+        Assert.assertEquals(5, search.getBestQuality());
+        Assert.assertTrue(search.getBestSize() > 0);
+    }
+
+    public void testKeepsSmallestWhenNothingFits() {
+        FileSizeSearch search = new FileSizeSearch(1, 90, false);
+        run(search, false);
+        Assert.assertFalse(search.fits());
+        Assert.assertEquals(FileSizeSearch.MIN_QUALITY, search.getBestQuality());
+        // Max and min quality for each of the 4 dimension steps
+        Assert.assertEquals(8, encodes);
+        Assert.assertEquals(size(search.getBestScale(), FileSizeSearch.MIN_QUALITY, false), search.getBestSize());
+    }
+
+    private void run(FileSizeSearch search, boolean lossless) {
+        while (search.nextDimension()) {
+            while (search.nextQuality()) {
+                encodes++;
+                search.report(size(search.getScale(), search.getQuality(), lossless));
+            }
+        }
+    }
+
+    private static long size(float scale, int quality, boolean lossless) {
+        double bytesPerPixel = lossless ? 1 : 0.1 + quality / 100.0;
+        return Math.max(1, (long) (FULL_SIZE * scale * scale * bytesPerPixel));
+    }
+}
@@ -0,0 +1,189 @@
+package com.kbeanie.multipicker;
+
+import com.kbeanie.multipicker.api.ChecksumAlgorithm;
+import com.kbeanie.multipicker.utils.CopyInspector;
+import com.kbeanie.multipicker.utils.FileUtils;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.CRC32;
+
+/**
+ * Copies, checksums and content identity of a small random file.
+ */
+public class FileUtilsTestCase extends TestCase {
+    private final static int FILE_SIZE = 256 * 1024;
+    // Just over the 8 MB a single channel transfer moves
+    private final static int LARGE_FILE_SIZE = 8 * 1024 * 1024 + 1024;
+
+    private File source;
+    private File destination;
+
+    @Override
+    protected void setUp() throws Exception {
+        source = File.createTempFile("multipicker-source", ".bin");
+        destination = File.createTempFile("multipicker-destination", ".bin");
+        write(source, FILE_SIZE);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        source.delete();
+        destination.delete();
+    }
+
+    public void testCopyFileKeepsContent() throws IOException {
+        FileUtils.copyFile(source, destination);
+        Assert.assertEquals(source.length(), destination.length());
+        Assert.assertTrue(sameContent(source, destination));
+    }
+
+    public void testContentIdentityFollowsContent() throws IOException {
+        FileUtils.copyFile(source, destination);
+        Assert.assertEquals(FileUtils.getContentIdentity(source), FileUtils.getContentIdentity(destination));
+
+        RandomAccessFile file = new RandomAccessFile(destination, "rw");
+        try {
+            file.seek(10);
+            int value = file.read();
+            file.seek(10);
+            file.write(~value);
+        } finally {
+            file.close();
+        }
+        Assert.assertFalse(FileUtils.getContentIdentity(source).equals(FileUtils.getContentIdentity(destination)));
+    }
+
+    public void testContentIdentitySeesTheMiddle() throws IOException {
+        FileUtils.copyFile(source, destination);
+        RandomAccessFile file = new RandomAccessFile(destination, "rw");
+        try {
+            file.seek(FILE_SIZE / 2);
+            int value = file.read();
+            file.seek(FILE_SIZE / 2);
+            file.write(~value);
+        } finally {
+            file.close();
+        }
+        Assert.assertEquals(source.length(), destination.length());
+        Assert.assertFalse(FileUtils.getContentIdentity(source).equals(FileUtils.getContentIdentity(destination)));
+    }
+
+    public void testContentIdentityFromCopyChecksum() throws IOException {
+        CopyInspector inspector = new CopyInspector(ChecksumAlgorithm.CRC32);
+        FileUtils.copyFile(source, destination, null, inspector);
+        Assert.assertEquals(FileUtils.getContentIdentity(source), FileUtils.getContentIdentity(inspector.getSize(),
+                inspector.getChecksumAlgorithm(), inspector.getChecksum()));
+    }
+
+    public void testCopyLargeFromOffset() throws IOException {
+        write(source, LARGE_FILE_SIZE);
+        FileInputStream in = new FileInputStream(source);
+        FileOutputStream out = new FileOutputStream(destination);
+        try {
+            in.getChannel().position(16);
+            long copied = FileUtils.copyLarge(in.getChannel(), out.getChannel(), null);
+            Assert.assertEquals(LARGE_FILE_SIZE - 16, copied);
+        } finally {
+            in.close();
+            out.close();
+        }
+        Assert.assertEquals(LARGE_FILE_SIZE - 16, destination.length());
+    }
+
+    public void testCopyComputesChecksumAndSize() throws IOException {
+        CopyInspector inspector = new CopyInspector(ChecksumAlgorithm.CRC32);
+        FileUtils.copyFile(source, destination, null, inspector);
+        Assert.assertEquals(FILE_SIZE, inspector.getSize());
+        Assert.assertEquals(String.format("%08x", crc32(destination)), inspector.getChecksum());
+        Assert.assertTrue(sameContent(source, destination));
+    }
+
+    public void testSha256AndMimeType() throws IOException {
+        byte[] gif = "GIF89a and some more bytes".getBytes("US-ASCII");
+        CopyInspector inspector = new CopyInspector(ChecksumAlgorithm.SHA_256);
+        FileUtils.copyLarge(new ByteArrayInputStream(gif), new ByteArrayOutputStream(), null, inspector);
+        Assert.assertEquals("image/gif", inspector.getMimeType());
+        Assert.assertEquals(gif.length, inspector.getSize());
+
+        inspector = new CopyInspector(ChecksumAlgorithm.SHA_256);
+        inspector.update("abc".getBytes("US-ASCII"), 0, 3);
+        Assert.assertEquals("ba7816bf8f01cfea414140de5dae2223b00361a396177a9cb410ff61f20015ad", inspector.getChecksum());
+    }
+
+    public void testChannelCopyWithoutChecksumSeesHeader() throws IOException {
+        CopyInspector inspector = new CopyInspector(ChecksumAlgorithm.NONE);
+        FileUtils.copyFile(source, destination, null, inspector);
+        Assert.assertEquals(FILE_SIZE, inspector.getSize());
+        Assert.assertNull(inspector.getChecksum());
+    }
+
+    private static void write(File file, int size) throws IOException {
+        byte[] content = new byte[size];
+        new Random(42).nextBytes(content);
+        OutputStream out = new FileOutputStream(file);
+        try {
+            out.write(content);
+        } finally {
+            out.close();
+        }
+    }
+
+    private static long crc32(File file) throws IOException {
+        CRC32 crc32 = new CRC32();
+        InputStream in = new FileInputStream(file);
+        try {
+            byte[] buffer = new byte[64 * 1024];
+            int n;
+            while (-1 != (n = in.read(buffer))) {
+                crc32.update(buffer, 0, n);
+            }
+        } finally {
+            in.close();
+        }
+        return crc32.getValue();
+    }
+
+    private static boolean sameContent(File first, File second) throws IOException {
+        InputStream a = new FileInputStream(first);
+        InputStream b = new FileInputStream(second);
+        try {
+            byte[] bufferA = new byte[64 * 1024];
+            byte[] bufferB = new byte[64 * 1024];
+            while (true) {
+                int n = readFully(a, bufferA);
+                int m = readFully(b, bufferB);
+                if (n != m || !Arrays.equals(bufferA, bufferB)) {
+                    return false;
+                }
+                if (n < bufferA.length) {
+                    return true;
+                }
+            }
+        } finally {
+            a.close();
+            b.close();
+        }
+    }
+
+    private static int readFully(InputStream in, byte[] buffer) throws IOException {
+        int total = 0;
+        int n;
+        while (total < buffer.length && (n = in.read(buffer, total, buffer.length - total)) != -1) {
+            total += n;
+        }
+        return total;
+    }
+}
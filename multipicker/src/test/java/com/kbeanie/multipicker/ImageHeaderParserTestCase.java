@@ -0,0 +1,305 @@
+package com.kbeanie.multipicker;
+
+import com.kbeanie.multipicker.utils.ImageHeaderParser;
+import com.kbeanie.multipicker.utils.ImageMetadata;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import javax.imageio.ImageIO;
+
+/**
+ * Runs the header parser over a small corpus: JPEG, PNG and GIF files written by ImageIO, and
+ * hand built WebP and HEIF headers.
+ */
+public class ImageHeaderParserTestCase extends TestCase {
+    public void testJpeg() throws IOException {
+        ImageMetadata metadata = parse(encode("jpg", 640, 480));
+        Assert.assertEquals("image/jpeg", metadata.getMimeType());
+        Assert.assertEquals(640, metadata.getWidth());
+        Assert.assertEquals(480, metadata.getHeight());
+        Assert.assertEquals(ImageHeaderParser.ORIENTATION_NORMAL, metadata.getOrientation());
+    }
+
+    public void testJpegWithExif() throws IOException {
+        for (boolean littleEndian : new boolean[]{true, false}) {
+            ImageMetadata metadata = parse(withExif(encode("jpg", 300, 200), 6, "2016:02:20 10:00:00", littleEndian));
+            Assert.assertEquals(300, metadata.getWidth());
+            Assert.assertEquals(200, metadata.getHeight());
+            Assert.assertEquals(6, metadata.getOrientation());
+            Assert.assertEquals(90, metadata.getRotation());
+            Assert.assertEquals("2016:02:20 10:00:00", metadata.getDateTime());
+        }
+    }
+
+    public void testJpegEmbeddedThumbnail() throws IOException {
+        byte[] thumbnail = encode("jpg", 160, 120);
+        ByteArrayOutputStream tiff = new ByteArrayOutputStream();
+        tiff.write("MM".getBytes("US-ASCII"));
+        tiff.write(be(42, 2));
+        tiff.write(be(8, 4));
+        // IFD0, without entries, then IFD1 with the offset and length of the thumbnail
+        tiff.write(be(0, 2));
+        tiff.write(be(14, 4));
+        tiff.write(be(2, 2));
+        tiff.write(concat(be(0x0201, 2), be(4, 2), be(1, 4), be(14 + 2 + 24 + 4, 4)));
+        tiff.write(concat(be(0x0202, 2), be(4, 2), be(1, 4), be(thumbnail.length, 4)));
+        tiff.write(be(0, 4));
+        tiff.write(thumbnail);
+
+        byte[] jpeg = encode("jpg", 640, 480);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(jpeg, 0, 2);
+        out.write(new byte[]{(byte) 0xff, (byte) 0xe1});
+        out.write(be(tiff.size() + 8, 2));
+        out.write("Exif".getBytes("US-ASCII"));
+        out.write(new byte[2]);
+        out.write(tiff.toByteArray());
+        out.write(jpeg, 2, jpeg.length - 2);
+        byte[] data = out.toByteArray();
+
+        ImageMetadata metadata = parse(data);
+        Assert.assertEquals(640, metadata.getWidth());
+        Assert.assertTrue(metadata.hasThumbnail());
+        Assert.assertEquals(thumbnail.length, metadata.getThumbnailLength());
+        int offset = (int) metadata.getThumbnailOffset();
+        Assert.assertTrue(Arrays.equals(thumbnail, Arrays.copyOfRange(data, offset, offset + thumbnail.length)));
+        Assert.assertFalse(parse(jpeg).hasThumbnail());
+    }
+
+    public void testBogusThumbnailDirectory() throws IOException {
+        byte[] jpeg = encode("jpg", 640, 480);
+        // Past the end of the EXIF block, far past it, and cut short
+        for (int ifd1 : new int[]{0xffffffff, 0x7ffffffe, 17}) {
+            ByteArrayOutputStream tiff = new ByteArrayOutputStream();
+            tiff.write("MM".getBytes("US-ASCII"));
+            tiff.write(be(42, 2));
+            tiff.write(be(8, 4));
+            tiff.write(be(0, 2));
+            tiff.write(be(ifd1, 4));
+            tiff.write(be(1, 2));
+
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            out.write(jpeg, 0, 2);
+            out.write(new byte[]{(byte) 0xff, (byte) 0xe1});
+            out.write(be(tiff.size() + 8, 2));
+            out.write("Exif".getBytes("US-ASCII"));
+            out.write(new byte[2]);
+            out.write(tiff.toByteArray());
+            out.write(jpeg, 2, jpeg.length - 2);
+
+            ImageMetadata metadata = parse(out.toByteArray());
+            Assert.assertEquals(640, metadata.getWidth());
+            Assert.assertFalse(metadata.hasThumbnail());
+        }
+    }
+
+    public void testPng() throws IOException {
+        ImageMetadata metadata = parse(encode("png", 1920, 1080));
+        Assert.assertEquals("image/png", metadata.getMimeType());
+        Assert.assertEquals(1920, metadata.getWidth());
+        Assert.assertEquals(1080, metadata.getHeight());
+    }
+
+    public void testGif() throws IOException {
+        ImageMetadata metadata = parse(encode("gif", 33, 77));
+        Assert.assertEquals("image/gif", metadata.getMimeType());
+        Assert.assertEquals(33, metadata.getWidth());
+        Assert.assertEquals(77, metadata.getHeight());
+    }
+
+    public void testWebpLossy() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writeRiffHeader(out);
+        writeFourCC(out, "VP8 ");
+        writeLE(out, 10, 4);
+        out.write(new byte[]{0, 0, 0, (byte) 0x9d, 0x01, 0x2a});
+        writeLE(out, 800, 2);
+        writeLE(out, 600, 2);
+        ImageMetadata metadata = parse(out.toByteArray());
+        Assert.assertEquals("image/webp", metadata.getMimeType());
+        Assert.assertEquals(800, metadata.getWidth());
+        Assert.assertEquals(600, metadata.getHeight());
+    }
+
+    public void testWebpLossless() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writeRiffHeader(out);
+        writeFourCC(out, "VP8L");
+        writeLE(out, 5, 4);
+        out.write(0x2f);
+        writeLE(out, (4000 - 1) | ((3000 - 1) << 14), 4);
+        ImageMetadata metadata = parse(out.toByteArray());
+        Assert.assertEquals(4000, metadata.getWidth());
+        Assert.assertEquals(3000, metadata.getHeight());
+    }
+
+    public void testWebpExtendedWithExif() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writeRiffHeader(out);
+        writeFourCC(out, "VP8X");
+        writeLE(out, 10, 4);
+        out.write(0x08);
+        out.write(new byte[3]);
+        writeLE(out, 20000 - 1, 3);
+        writeLE(out, 5000 - 1, 3);
+        // Image data, skipped
+        writeFourCC(out, "VP8 ");
+        writeLE(out, 1001, 4);
+        out.write(new byte[1002]);
+        byte[] tiff = tiff(3, null, false);
+        writeFourCC(out, "EXIF");
+        writeLE(out, tiff.length, 4);
+        out.write(tiff);
+        ImageMetadata metadata = parse(out.toByteArray());
+        Assert.assertEquals(20000, metadata.getWidth());
+        Assert.assertEquals(5000, metadata.getHeight());
+        Assert.assertEquals(3, metadata.getOrientation());
+    }
+
+    public void testHeif() throws IOException {
+        ByteArrayOutputStream ipco = new ByteArrayOutputStream();
+        // Thumbnail first, then the primary image
+        writeBox(ipco, "ispe", concat(new byte[4], be(320, 4), be(240, 4)));
+        writeBox(ipco, "ispe", concat(new byte[4], be(4032, 4), be(3024, 4)));
+        writeBox(ipco, "irot", new byte[]{3});
+        ByteArrayOutputStream iprp = new ByteArrayOutputStream();
+        writeBox(iprp, "ipco", ipco.toByteArray());
+        ByteArrayOutputStream meta = new ByteArrayOutputStream();
+        meta.write(new byte[4]);
+        writeBox(meta, "hdlr", new byte[24]);
+        writeBox(meta, "iprp", iprp.toByteArray());
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writeBox(out, "ftyp", concat("heic".getBytes("US-ASCII"), new byte[4], "mif1heic".getBytes("US-ASCII")));
+        writeBox(out, "meta", meta.toByteArray());
+        ImageMetadata metadata = parse(out.toByteArray());
+        Assert.assertEquals("image/heic", metadata.getMimeType());
+        Assert.assertEquals(4032, metadata.getWidth());
+        Assert.assertEquals(3024, metadata.getHeight());
+        Assert.assertEquals(90, metadata.getRotation());
+    }
+
+    public void testUnknownAndTruncated() throws IOException {
+        Assert.assertNull(parse("plain text, not an image".getBytes("US-ASCII")));
+        Assert.assertNull(parse(new byte[]{(byte) 0xff}));
+        byte[] png = encode("png", 10, 10);
+        Assert.assertNull(parse(Arrays.copyOf(png, 20)));
+        byte[] jpeg = encode("jpg", 10, 10);
+        Assert.assertNull(parse(Arrays.copyOf(jpeg, 30)));
+    }
+
+    private static ImageMetadata parse(byte[] data) throws IOException {
+        return ImageHeaderParser.parse(new ByteArrayInputStream(data));
+    }
+
+    private static byte[] encode(String format, int width, int height) throws IOException {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < height; y += 7) {
+            image.setRGB(y % width, y, 0xff8800);
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Assert.assertTrue(ImageIO.write(image, format, out));
+        return out.toByteArray();
+    }
+
+    // Inserts an APP1 segment right after the start of image marker
+    private static byte[] withExif(byte[] jpeg, int orientation, String dateTime, boolean littleEndian) throws IOException {
+        byte[] tiff = tiff(orientation, dateTime, littleEndian);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(jpeg, 0, 2);
+        out.write(0xff);
+        out.write(0xe1);
+        out.write(be(tiff.length + 8, 2));
+        out.write("Exif".getBytes("US-ASCII"));
+        out.write(new byte[2]);
+        out.write(tiff);
+        out.write(jpeg, 2, jpeg.length - 2);
+        return out.toByteArray();
+    }
+
+    private static byte[] tiff(int orientation, String dateTime, boolean littleEndian) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        int entries = dateTime != null ? 2 : 1;
+        out.write(littleEndian ? "II".getBytes("US-ASCII") : "MM".getBytes("US-ASCII"));
+        out.write(order(be(42, 2), littleEndian));
+        out.write(order(be(8, 4), littleEndian));
+        out.write(order(be(entries, 2), littleEndian));
+        // Orientation, SHORT, count 1, value in the first 2 bytes of the field
+        out.write(order(be(0x0112, 2), littleEndian));
+        out.write(order(be(3, 2), littleEndian));
+        out.write(order(be(1, 4), littleEndian));
+        out.write(order(be(orientation, 2), littleEndian));
+        out.write(new byte[2]);
+        if (dateTime != null) {
+            int valueOffset = 8 + 2 + entries * 12 + 4;
+            out.write(order(be(0x0132, 2), littleEndian));
+            out.write(order(be(2, 2), littleEndian));
+            out.write(order(be(dateTime.length() + 1, 4), littleEndian));
+            out.write(order(be(valueOffset, 4), littleEndian));
+        }
+        // No next IFD
+        out.write(new byte[4]);
+        if (dateTime != null) {
+            out.write(dateTime.getBytes("US-ASCII"));
+            out.write(0);
+        }
+        return out.toByteArray();
+    }
+
+    private static void writeRiffHeader(ByteArrayOutputStream out) throws IOException {
+        writeFourCC(out, "RIFF");
+        // Size isn't checked
+        writeLE(out, 0, 4);
+        writeFourCC(out, "WEBP");
+    }
+
+    private static void writeBox(ByteArrayOutputStream out, String type, byte[] body) throws IOException {
+        out.write(be(body.length + 8, 4));
+        writeFourCC(out, type);
+        out.write(body);
+    }
+
+    private static void writeFourCC(ByteArrayOutputStream out, String fourCC) throws IOException {
+        out.write(fourCC.getBytes("US-ASCII"));
+    }
+
+    private static void writeLE(ByteArrayOutputStream out, int value, int length) {
+        for (int i = 0; i < length; i++) {
+            out.write((value >> (8 * i)) & 0xff);
+        }
+    }
+
+    private static byte[] be(int value, int length) {
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[length - 1 - i] = (byte) (value >> (8 * i));
+        }
+        return bytes;
+    }
+
+    private static byte[] order(byte[] bigEndian, boolean littleEndian) {
+        if (!littleEndian) {
+            return bigEndian;
+        }
+        byte[] reversed = new byte[bigEndian.length];
+        for (int i = 0; i < bigEndian.length; i++) {
+            reversed[i] = bigEndian[bigEndian.length - 1 - i];
+        }
+        return reversed;
+    }
+
+    private static byte[] concat(byte[]... parts) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (byte[] part : parts) {
+            out.write(part);
+        }
+        return out.toByteArray();
+    }
+}